@@ -7,7 +7,7 @@ include $(CLEAR_VARS)
 LOCAL_LDLIBS    := -llog -ljnigraphics
  
 LOCAL_MODULE    := blur
-LOCAL_SRC_FILES := blur.c
+LOCAL_SRC_FILES := blur.c stackblur.c
  
 LOCAL_CFLAGS    =  -ffast-math -O3 -funroll-loops
  
@@ -3,144 +3,19 @@
 #include <stdbool.h>
 #include <string.h>
 #include <stdio.h>
+#include <time.h>
 #include <android/log.h>
 #include <android/bitmap.h>
+#include "stackblur.h"
 
 #define LOG_TAG "libbitmaputils"
 #define LOGI(...)  __android_log_print(ANDROID_LOG_INFO,LOG_TAG,__VA_ARGS__)
 #define LOGE(...)  __android_log_print(ANDROID_LOG_ERROR,LOG_TAG,__VA_ARGS__)
 
-#define clamp(a,min,max) \
-    ({__typeof__ (a) _a__ = (a); \
-      __typeof__ (min) _min__ = (min); \
-      __typeof__ (max) _max__ = (max); \
-      _a__ < _min__ ? _min__ : _a__ > _max__ ? _max__ : _a__; })
-
-// Based heavily on http://vitiy.info/Code/stackblur.cpp
-// See http://vitiy.info/stackblur-algorithm-multi-threaded-blur-for-cpp/
-// Stack Blur Algorithm by Mario Klingemann <mario@quasimondo.com>
-
-/// Stackblur algorithm body
-static void blur_line(
-        uint8_t * bitmap, int32_t w, int32_t h, int32_t img_stride,
-        int32_t radius, bool blurAlpha,
-        int32_t line_idx, bool horizontal,
-        uint8_t * in_stack
-) {
-    int32_t stride;
-    int channels = (blurAlpha) ? 4 : 3;
-    uint8_t (*stack)[channels] = (uint8_t(*)[channels]) in_stack;
-    uint8_t (*dst)[4], (*src)[4], (*last)[4];
-    int32_t div = radius * 2 + 1;
-    int32_t div_sum = (radius + 1) * (radius + 1);
-    int32_t stack_i, stack_drop;
-    int32_t sum[4] = {0}, sum_out[4] = {0}, sum_in[4] = {0};
-    if (horizontal) {
-        stride = 1;
-        dst = src = (uint8_t(*)[4])(&bitmap[img_stride * line_idx]);
-        last = &src[(w - 1) * stride];
-    } else {
-        stride = img_stride / 4;
-        dst = src = &(((uint8_t(*)[4])bitmap)[line_idx]);
-        last = &src[(h - 1) * stride];
-    }
-
-    for (int i = 0; i <= radius; i++) {
-        for(int j = 0; j < channels; j++) {
-            uint8_t byte = (*src)[j];
-            stack[i][j] = byte;
-            sum[j] += byte * (i + 1);
-            sum_out[j] += byte;
-        }
-    }
-    for (int i = 1; i <= radius; i++) {
-        if (src != last) {
-            src += stride;
-        }
-        for(int j = 0; j < channels; j++) {
-            stack_i = i + radius;
-            uint8_t byte = (*src)[j];
-            stack[stack_i][j] = byte;
-            sum[j] += byte * (radius + 1 - i);
-            sum_in[j] += byte;
-        }
-    }
-
-    stack_i = radius;
-    stack_drop = div - 1;
-    while (true) {
-        if (src != last) {
-            src += stride;
-        }
-
-        if (stack_i == div - 1) {
-            stack_i = 0;
-        } else {
-            stack_i += 1;
-        }
-        if (stack_drop == div - 1) {
-            stack_drop = 0;
-        } else {
-            stack_drop += 1;
-        }
-        for(int j = 0; j < channels; j++) {
-            (*dst)[j] = (uint8_t) (sum[j] / div_sum);
-        }
-
-        if (dst == last) {
-            break;
-        }
-        dst += stride;
-
-        for(int j = 0; j < channels; j++) {
-            sum[j] -= sum_out[j];
-            sum_out[j] -= stack[stack_drop][j];
-
-            uint8_t byte = (*src)[j];
-            stack[stack_drop][j] = byte;
-            sum_in[j] += byte;
-            sum[j] += sum_in[j];
-
-            sum_out[j] += stack[stack_i][j];
-            sum_in[j] -= stack[stack_i][j];
-        }
-    }
-}
-
-static int stackblurJob(
-        uint8_t* src,      ///< input image data
-        int32_t w,         ///< image width
-        int32_t h,         ///< image height
-        int32_t stride,    ///< number of bytes between rows
-        int32_t radius,    ///< blur intensity
-        int cores,         ///< total number of working threads
-        int core,          ///< current thread number
-        bool horizontal    ///< true if blur should be done horizontally
-) {
-    bool blur_alpha = false;
-    int channels = 3 + blur_alpha;
-    int32_t min;
-    int32_t max;
-    int32_t div = radius * 2 + 1;
-    uint8_t *stack = malloc(div * channels * sizeof(uint8_t));
-    if (!stack) {
-        return 1;
-    }
-
-    if (horizontal) {
-        min = core * h / cores;
-        max = (core + 1) * h / cores;
-    } else {
-        min = core * w / cores;
-        max = (core + 1) * w / cores;
-    }
-
-    for (int i = min; i < max; i++) {
-        blur_line(src, w, h, stride, radius, blur_alpha, i, horizontal, stack);
-    }
-
-    free(stack);
-    return 0;
+static int64_t now_nanos(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t) ts.tv_sec * 1000000000LL + ts.tv_nsec;
 }
 
 void throw_oom(JNIEnv* env, const char* message) {
@@ -153,49 +28,204 @@ void throw_oom(JNIEnv* env, const char* message) {
     }
 }
 
-JNIEXPORT void JNICALL Java_com_enrique_stackblur_NativeBlurProcess_functionToBlur(JNIEnv* env, jclass clzz, jobject bitmapOut, jint radius, jint threadCount, jint threadIndex, jboolean horizontal) {
+/// Returns the time spent locking and unlocking pixels, in nanoseconds
+JNIEXPORT jlong JNICALL Java_com_enrique_stackblur_NativeBlurProcess_functionToBlur(JNIEnv* env, jclass clzz, jobject bitmapIn, jobject bitmapOut, jint radius, jintArray transform, jint lineStart, jint lineEnd, jboolean horizontal, jboolean linear) {
     // Properties
+    AndroidBitmapInfo   infoIn;
     AndroidBitmapInfo   infoOut;
+    void*               pixelsIn;
     void*               pixelsOut;
 
+    jint                ctm[20];
+
     int ret;
+    if (transform) {
+        (*env)->GetIntArrayRegion(env, transform, 0, 20, ctm);
+    }
+    // Only the horizontal pass reads from a separate source bitmap
+    bool separateIn = horizontal && !(*env)->IsSameObject(env, bitmapIn, bitmapOut);
 
     // Get image info
     if ((ret = AndroidBitmap_getInfo(env, bitmapOut, &infoOut)) != 0) {
         LOGE("AndroidBitmap_getInfo() failed ! error=%d", ret);
-        return;
+        return 0;
+    }
+    if (separateIn && (ret = AndroidBitmap_getInfo(env, bitmapIn, &infoIn)) != 0) {
+        LOGE("AndroidBitmap_getInfo() failed ! error=%d", ret);
+        return 0;
     }
 
     // Check image
-    if (infoOut.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+    if (infoOut.format != ANDROID_BITMAP_FORMAT_RGBA_8888 || (separateIn && infoIn.format != ANDROID_BITMAP_FORMAT_RGBA_8888)) {
         LOGE("Bitmap format is not RGBA_8888!");
         LOGE("==> %d", infoOut.format);
-        return;
+        return 0;
     }
 
     // Lock all images
+    int64_t lock_start = now_nanos();
     if ((ret = AndroidBitmap_lockPixels(env, bitmapOut, &pixelsOut)) != 0) {
         LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
         throw_oom(env, "Unable to lock pixels. Bitmap may be too large");
-        return;
+        return 0;
+    }
+    if (separateIn) {
+        if ((ret = AndroidBitmap_lockPixels(env, bitmapIn, &pixelsIn)) != 0) {
+            LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+            AndroidBitmap_unlockPixels(env, bitmapOut);
+            throw_oom(env, "Unable to lock pixels. Bitmap may be too large");
+            return 0;
+        }
+    } else {
+        infoIn = infoOut;
+        pixelsIn = pixelsOut;
     }
 
+    int64_t lock_nanos = now_nanos() - lock_start;
+
     int h = infoOut.height;
     int w = infoOut.width;
     int stride = infoOut.stride;
 
-    ret = stackblurJob((unsigned char*)pixelsOut, w, h, stride, radius, threadCount, threadIndex, horizontal);
+    ret = stackblurJob((const uint8_t*)pixelsIn, infoIn.width, infoIn.height, infoIn.stride,
+                       (uint8_t*)pixelsOut, w, h, stride, radius,
+                       transform ? (const int32_t*)ctm : NULL, lineStart, lineEnd, horizontal, linear);
+
+    // Unlocks everything
+    lock_start = now_nanos();
+    if (separateIn) {
+        AndroidBitmap_unlockPixels(env, bitmapIn);
+    }
     if (ret != 0) {
         LOGE("Unable to allocate stack for stackblur");
+        AndroidBitmap_unlockPixels(env, bitmapOut);
         throw_oom(env, "Unable to allocate stack for stackblur");
-        return;
+        return 0;
     }
 
-    // Unlocks everything
     ret = AndroidBitmap_unlockPixels(env, bitmapOut);
     if (ret != 0) {
         LOGE("AndroidBitmap_unlockPixels() failed ! error=%d", ret);
         throw_oom(env, "Unable to unlock pixels. This should never happen");
+        return 0;
+    }
+    return lock_nanos + (now_nanos() - lock_start);
+}
+
+/// Blur bitmapIn into each of bitmapsOut by the radius at the same index, reading
+/// the rows of bitmapIn once for all of them.
+/// Returns the time spent locking and unlocking pixels, in nanoseconds
+JNIEXPORT jlong JNICALL Java_com_enrique_stackblur_NativeBlurProcess_functionToBlurAll(JNIEnv* env, jclass clzz, jobject bitmapIn, jobjectArray bitmapsOut, jintArray radii, jintArray transform, jint lineStart, jint lineEnd, jboolean horizontal, jboolean linear) {
+    AndroidBitmapInfo   infoIn;
+    AndroidBitmapInfo   infoOut;
+    void*               pixelsIn = NULL;
+    jint                ctm[20];
+    jsize               count = (*env)->GetArrayLength(env, bitmapsOut);
+    jobject*            outs = malloc(count * sizeof(jobject));
+    uint8_t**           pixelsOut = malloc(count * sizeof(uint8_t*));
+    jint*               fixedRadii = malloc(count * sizeof(jint));
+    jsize               locked = 0;
+    jlong               lock_nanos = 0;
+    int64_t             lock_start;
+    int ret;
+
+    if (!outs || !pixelsOut || !fixedRadii) {
+        free(outs);
+        free(pixelsOut);
+        free(fixedRadii);
+        throw_oom(env, "Unable to allocate stack for stackblur");
+        return 0;
+    }
+    if (transform) {
+        (*env)->GetIntArrayRegion(env, transform, 0, 20, ctm);
+    }
+    (*env)->GetIntArrayRegion(env, radii, 0, count, fixedRadii);
+    for (jsize k = 0; k < count; k++) {
+        outs[k] = (*env)->GetObjectArrayElement(env, bitmapsOut, k);
+    }
+
+    // The outputs all have the same size, only the horizontal pass reads a separate bitmapIn
+    bool separateIn = horizontal && !(*env)->IsSameObject(env, bitmapIn, outs[0]);
+    if ((ret = AndroidBitmap_getInfo(env, outs[0], &infoOut)) != 0
+            || (separateIn && (ret = AndroidBitmap_getInfo(env, bitmapIn, &infoIn)) != 0)) {
+        LOGE("AndroidBitmap_getInfo() failed ! error=%d", ret);
+        goto done;
+    }
+    if (infoOut.format != ANDROID_BITMAP_FORMAT_RGBA_8888 || (separateIn && infoIn.format != ANDROID_BITMAP_FORMAT_RGBA_8888)) {
+        LOGE("Bitmap format is not RGBA_8888!");
+        goto done;
+    }
+
+    lock_start = now_nanos();
+    for (; locked < count; locked++) {
+        if ((ret = AndroidBitmap_lockPixels(env, outs[locked], (void**)&pixelsOut[locked])) != 0) {
+            LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+            throw_oom(env, "Unable to lock pixels. Bitmap may be too large");
+            goto done;
+        }
+    }
+    if (separateIn) {
+        if ((ret = AndroidBitmap_lockPixels(env, bitmapIn, &pixelsIn)) != 0) {
+            LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+            pixelsIn = NULL;
+            throw_oom(env, "Unable to lock pixels. Bitmap may be too large");
+            goto done;
+        }
+    } else {
+        infoIn = infoOut;
+        pixelsIn = pixelsOut[0];
+    }
+    lock_nanos = now_nanos() - lock_start;
+
+    ret = stackblurJobs((const uint8_t*)pixelsIn, infoIn.width, infoIn.height, infoIn.stride,
+                        pixelsOut, infoOut.width, infoOut.height, infoOut.stride, (const int32_t*)fixedRadii, count,
+                        transform ? (const int32_t*)ctm : NULL, lineStart, lineEnd, horizontal, linear);
+    if (ret != 0) {
+        LOGE("Unable to allocate stack for stackblur");
+        throw_oom(env, "Unable to allocate stack for stackblur");
+    }
+
+done:
+    lock_start = now_nanos();
+    if (separateIn && pixelsIn) {
+        AndroidBitmap_unlockPixels(env, bitmapIn);
+    }
+    for (jsize k = 0; k < locked; k++) {
+        AndroidBitmap_unlockPixels(env, outs[k]);
+    }
+    lock_nanos += now_nanos() - lock_start;
+    for (jsize k = 0; k < count; k++) {
+        (*env)->DeleteLocalRef(env, outs[k]);
+    }
+    free(outs);
+    free(pixelsOut);
+    free(fixedRadii);
+    return lock_nanos;
+}
+
+/// Blur direct ByteBuffers of RGBA pixels in place, without copying them
+JNIEXPORT void JNICALL Java_com_enrique_stackblur_NativeBlurProcess_functionToBlurBuffer(JNIEnv* env, jclass clzz,
+        jobject bufferIn, jint widthIn, jint heightIn, jint strideIn,
+        jobject bufferOut, jint width, jint height, jint stride,
+        jint radius, jintArray transform, jint lineStart, jint lineEnd, jboolean horizontal, jboolean linear) {
+    jint ctm[20];
+    if (transform) {
+        (*env)->GetIntArrayRegion(env, transform, 0, 20, ctm);
+    }
+
+    uint8_t* pixelsIn = (*env)->GetDirectBufferAddress(env, bufferIn);
+    uint8_t* pixelsOut = (*env)->GetDirectBufferAddress(env, bufferOut);
+    if (!pixelsIn || !pixelsOut) {
+        jclass exClass = (*env)->FindClass(env, "java/lang/IllegalArgumentException");
+        if (exClass) {
+            (*env)->ThrowNew(env, exClass, "buffers must be direct");
+        }
         return;
     }
+
+    if (stackblurJob(pixelsIn, widthIn, heightIn, strideIn, pixelsOut, width, height, stride, radius,
+                     transform ? (const int32_t*)ctm : NULL, lineStart, lineEnd, horizontal, linear) != 0) {
+        LOGE("Unable to allocate stack for stackblur");
+        throw_oom(env, "Unable to allocate stack for stackblur");
+    }
 }
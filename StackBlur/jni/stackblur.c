@@ -0,0 +1,582 @@
+#include <math.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <stdbool.h>
+#include <stdint.h>
+#include <string.h>
+#include "stackblur.h"
+
+#define clamp(a,min,max) \
+    ({__typeof__ (a) _a__ = (a); \
+      __typeof__ (min) _min__ = (min); \
+      __typeof__ (max) _max__ = (max); \
+      _a__ < _min__ ? _min__ : _a__ > _max__ ? _max__ : _a__; })
+
+/// Number of fractional bits in the color transform coefficients, see ColorTransform.SHIFT
+#define CTM_SHIFT 14
+
+/// Apply a 4x5 fixed point color matrix to one premultiplied RGBA pixel.
+/// The matrix works on non-premultiplied colors, so translucent pixels are
+/// unpremultiplied around it.
+static inline void color_transform(uint8_t * pixel, const int32_t * m) {
+    int32_t a = pixel[3];
+    int32_t r, g, b;
+    if (a == 255) {
+        r = pixel[0];
+        g = pixel[1];
+        b = pixel[2];
+    } else if (a == 0) {
+        r = g = b = 0;
+    } else {
+        r = (pixel[0] * 255 + a / 2) / a;
+        g = (pixel[1] * 255 + a / 2) / a;
+        b = (pixel[2] * 255 + a / 2) / a;
+    }
+    const int32_t half = 1 << (CTM_SHIFT - 1);
+    int32_t r2 = clamp((m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4] + half) >> CTM_SHIFT, 0, 255);
+    int32_t g2 = clamp((m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9] + half) >> CTM_SHIFT, 0, 255);
+    int32_t b2 = clamp((m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14] + half) >> CTM_SHIFT, 0, 255);
+    int32_t a2 = clamp((m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19] + half) >> CTM_SHIFT, 0, 255);
+    if (a2 != 255) {
+        r2 = (r2 * a2 + 127) / 255;
+        g2 = (g2 * a2 + 127) / 255;
+        b2 = (b2 * a2 + 127) / 255;
+    }
+    pixel[0] = (uint8_t) r2;
+    pixel[1] = (uint8_t) g2;
+    pixel[2] = (uint8_t) b2;
+    pixel[3] = (uint8_t) a2;
+}
+
+// Based heavily on http://vitiy.info/Code/stackblur.cpp
+// See http://vitiy.info/stackblur-algorithm-multi-threaded-blur-for-cpp/
+// Stack Blur Algorithm by Mario Klingemann <mario@quasimondo.com>
+
+/// Stackblur algorithm body
+static void blur_line(
+        uint8_t * bitmap, int32_t w, int32_t h, int32_t img_stride,
+        int32_t radius, bool blurAlpha,
+        int32_t line_idx, bool horizontal,
+        const int32_t * ctm,
+        uint8_t * in_stack
+) {
+    int32_t stride;
+    int channels = (blurAlpha) ? 4 : 3;
+    uint8_t (*stack)[channels] = (uint8_t(*)[channels]) in_stack;
+    uint8_t (*dst)[4], (*src)[4], (*last)[4];
+    int32_t div = radius * 2 + 1;
+    int32_t div_sum = (radius + 1) * (radius + 1);
+    int32_t stack_i, stack_drop;
+    int32_t sum[4] = {0}, sum_out[4] = {0}, sum_in[4] = {0};
+    if (horizontal) {
+        stride = 1;
+        dst = src = (uint8_t(*)[4])(&bitmap[img_stride * line_idx]);
+        last = &src[(w - 1) * stride];
+    } else {
+        stride = img_stride / 4;
+        dst = src = &(((uint8_t(*)[4])bitmap)[line_idx]);
+        last = &src[(h - 1) * stride];
+    }
+
+    for (int i = 0; i <= radius; i++) {
+        for(int j = 0; j < channels; j++) {
+            uint8_t byte = (*src)[j];
+            stack[i][j] = byte;
+            sum[j] += byte * (i + 1);
+            sum_out[j] += byte;
+        }
+    }
+    for (int i = 1; i <= radius; i++) {
+        if (src != last) {
+            src += stride;
+        }
+        for(int j = 0; j < channels; j++) {
+            stack_i = i + radius;
+            uint8_t byte = (*src)[j];
+            stack[stack_i][j] = byte;
+            sum[j] += byte * (radius + 1 - i);
+            sum_in[j] += byte;
+        }
+    }
+
+    stack_i = radius;
+    stack_drop = div - 1;
+    while (true) {
+        if (src != last) {
+            src += stride;
+        }
+
+        if (stack_i == div - 1) {
+            stack_i = 0;
+        } else {
+            stack_i += 1;
+        }
+        if (stack_drop == div - 1) {
+            stack_drop = 0;
+        } else {
+            stack_drop += 1;
+        }
+        for(int j = 0; j < channels; j++) {
+            (*dst)[j] = (uint8_t) (sum[j] / div_sum);
+        }
+        if (ctm) {
+            color_transform(*dst, ctm);
+        }
+
+        if (dst == last) {
+            break;
+        }
+        dst += stride;
+
+        for(int j = 0; j < channels; j++) {
+            sum[j] -= sum_out[j];
+            sum_out[j] -= stack[stack_drop][j];
+
+            uint8_t byte = (*src)[j];
+            stack[stack_drop][j] = byte;
+            sum_in[j] += byte;
+            sum[j] += sum_in[j];
+
+            sum_out[j] += stack[stack_i][j];
+            sum_in[j] -= stack[stack_i][j];
+        }
+    }
+}
+
+/// Box-filter the rows of src that map onto row y of a w x h image into out.
+/// When the destination is larger than the source this degrades to nearest neighbour.
+static void scale_row(
+        const uint8_t * src, int32_t src_w, int32_t src_h, int32_t src_stride,
+        int32_t w, int32_t h, int32_t y,
+        uint8_t (*out)[4], uint32_t (*acc)[4]
+) {
+    int32_t y0 = y * src_h / h;
+    int32_t y1 = (y + 1) * src_h / h;
+    if (y1 <= y0) {
+        y1 = y0 + 1;
+    }
+    memset(acc, 0, w * sizeof(*acc));
+    for (int32_t sy = y0; sy < y1; sy++) {
+        const uint8_t (*row)[4] = (const uint8_t(*)[4])(&src[src_stride * sy]);
+        for (int32_t x = 0; x < w; x++) {
+            int32_t x0 = x * src_w / w;
+            int32_t x1 = (x + 1) * src_w / w;
+            if (x1 <= x0) {
+                x1 = x0 + 1;
+            }
+            for (int32_t sx = x0; sx < x1; sx++) {
+                for (int j = 0; j < 4; j++) {
+                    acc[x][j] += row[sx][j];
+                }
+            }
+        }
+    }
+    for (int32_t x = 0; x < w; x++) {
+        int32_t x0 = x * src_w / w;
+        int32_t x1 = (x + 1) * src_w / w;
+        if (x1 <= x0) {
+            x1 = x0 + 1;
+        }
+        uint32_t count = (uint32_t) (x1 - x0) * (uint32_t) (y1 - y0);
+        for (int j = 0; j < 4; j++) {
+            out[x][j] = (uint8_t) ((acc[x][j] + count / 2) / count);
+        }
+    }
+}
+
+/// Largest radius handled by blur_line_small
+#define SMALL_RADIUS_MAX 4
+
+/// Fixed-tap body shared by the small radius kernels. Always inlined with a
+/// constant radius, so the taps and the division are resolved at compile time.
+static inline __attribute__((always_inline)) void blur_line_taps(
+        const int32_t radius, const int channels,
+        uint8_t (*line)[4], int32_t stride, int32_t len,
+        const int32_t * ctm, const uint8_t (*pad)[4]
+) {
+    const int32_t div_sum = (radius + 1) * (radius + 1);
+    for (int32_t i = 0; i < len; i++) {
+        uint8_t (*dst)[4] = &line[i * stride];
+        const uint8_t (*center)[4] = &pad[radius + i];
+        for (int j = 0; j < channels; j++) {
+            int32_t sum = center[0][j] * (radius + 1);
+            for (int32_t k = 1; k <= radius; k++) {
+                sum += (center[-k][j] + center[k][j]) * (radius + 1 - k);
+            }
+            (*dst)[j] = (uint8_t) (sum / div_sum);
+        }
+        if (ctm) {
+            color_transform(*dst, ctm);
+        }
+    }
+}
+
+/// Stackblur for radius 1 to SMALL_RADIUS_MAX as a direct 3, 5, 7 or 9 tap
+/// triangle filter. Gives exactly the same result as blur_line.
+/// The line is first copied into pad with its ends repeated radius times,
+/// which is the clamping blur_line does, so the taps need no bounds checks.
+static void blur_line_small(
+        uint8_t * bitmap, int32_t w, int32_t h, int32_t img_stride,
+        int32_t radius, bool blurAlpha,
+        int32_t line_idx, bool horizontal,
+        const int32_t * ctm,
+        uint8_t (*pad)[4]
+) {
+    int32_t stride, len;
+    uint8_t (*line)[4];
+    if (horizontal) {
+        stride = 1;
+        len = w;
+        line = (uint8_t(*)[4])(&bitmap[img_stride * line_idx]);
+    } else {
+        stride = img_stride / 4;
+        len = h;
+        line = &(((uint8_t(*)[4])bitmap)[line_idx]);
+    }
+
+    for (int32_t i = 0; i < radius; i++) {
+        memcpy(pad[i], line[0], 4);
+        memcpy(pad[radius + len + i], line[(len - 1) * stride], 4);
+    }
+    if (stride == 1) {
+        memcpy(pad[radius], line[0], len * 4);
+    } else {
+        for (int32_t i = 0; i < len; i++) {
+            memcpy(pad[radius + i], line[i * stride], 4);
+        }
+    }
+
+    const uint8_t (*taps)[4] = (const uint8_t(*)[4]) pad;
+    int channels = (blurAlpha) ? 4 : 3;
+    switch (radius * 8 + channels) {
+        case 1 * 8 + 3: blur_line_taps(1, 3, line, stride, len, ctm, taps); break;
+        case 2 * 8 + 3: blur_line_taps(2, 3, line, stride, len, ctm, taps); break;
+        case 3 * 8 + 3: blur_line_taps(3, 3, line, stride, len, ctm, taps); break;
+        case 4 * 8 + 3: blur_line_taps(4, 3, line, stride, len, ctm, taps); break;
+        case 1 * 8 + 4: blur_line_taps(1, 4, line, stride, len, ctm, taps); break;
+        case 2 * 8 + 4: blur_line_taps(2, 4, line, stride, len, ctm, taps); break;
+        case 3 * 8 + 4: blur_line_taps(3, 4, line, stride, len, ctm, taps); break;
+        case 4 * 8 + 4: blur_line_taps(4, 4, line, stride, len, ctm, taps); break;
+    }
+}
+
+/// Linear values have 12 bits, enough to tell every sRGB byte apart, see LinearLight.java
+#define LINEAR_MAX 4095
+
+static uint16_t to_linear[256];
+static uint8_t to_srgb[LINEAR_MAX + 1];
+static pthread_once_t linear_once = PTHREAD_ONCE_INIT;
+
+/// Fill the sRGB <-> linear tables. Rounds the same way as LinearLight.java.
+static void init_linear_tables(void) {
+    for (int i = 0; i < 256; i++) {
+        double c = i / 255.0;
+        double l = (c <= 0.04045) ? c / 12.92 : pow((c + 0.055) / 1.055, 2.4);
+        to_linear[i] = (uint16_t) floor(l * LINEAR_MAX + 0.5);
+    }
+    for (int i = 0; i <= LINEAR_MAX; i++) {
+        double l = (double) i / LINEAR_MAX;
+        double c = (l <= 0.0031308) ? l * 12.92 : 1.055 * pow(l, 1 / 2.4) - 0.055;
+        to_srgb[i] = (uint8_t) floor(c * 255 + 0.5);
+    }
+}
+
+/// sum / div_sum, from a floating point estimate which is at most one off
+static inline uint32_t linear_div(uint64_t sum, uint64_t div_sum, double inv_div_sum) {
+    // Signed conversions are single instructions, unsigned ones are not
+    uint64_t q = (uint64_t) (int64_t) ((double) (int64_t) sum * inv_div_sum);
+    if (q * div_sum > sum) {
+        q--;
+    } else if ((q + 1) * div_sum <= sum) {
+        q++;
+    }
+    return (uint32_t) q;
+}
+
+/// Stackblur in linear light. The line is decoded into line through to_linear, the
+/// triangle filter of blur_line runs on the linear values, and each result is encoded
+/// back through to_srgb as it is stored, so the image stays 8 bit sRGB between passes.
+static void blur_line_linear(
+        uint8_t * bitmap, int32_t w, int32_t h, int32_t img_stride,
+        int32_t radius, int32_t fraction,
+        int32_t line_idx, bool horizontal,
+        const int32_t * ctm,
+        uint16_t (*line)[3]
+) {
+    int32_t stride, len;
+    uint8_t (*pixels)[4];
+    if (horizontal) {
+        stride = 1;
+        len = w;
+        pixels = (uint8_t(*)[4])(&bitmap[img_stride * line_idx]);
+    } else {
+        stride = img_stride / 4;
+        len = h;
+        pixels = &(((uint8_t(*)[4])bitmap)[line_idx]);
+    }
+    for (int32_t i = 0; i < len; i++) {
+        for (int j = 0; j < 3; j++) {
+            line[i][j] = to_linear[pixels[i * stride][j]];
+        }
+    }
+
+    int32_t last = len - 1;
+    // The weights of a fractional radius are those of the triangle of the whole
+    // radius, plus fraction times a box one pixel wider on each side
+    uint64_t div_sum = (uint64_t) (radius + 1) * (radius + 1) * RADIUS_SCALE + (uint64_t) fraction * (2 * radius + 3);
+    // A 64-bit divide per channel would cost more than the rest of the loop
+    double inv_div_sum = 1.0 / div_sum;
+    uint64_t sum[3];
+    uint32_t sum_out[3], sum_in[3];
+    for (int j = 0; j < 3; j++) {
+        sum[j] = (uint64_t) line[0][j] * (radius + 1) * (radius + 2) / 2;
+        sum_out[j] = line[0][j] * (uint32_t) (radius + 1);
+        sum_in[j] = 0;
+    }
+    for (int32_t k = 1; k <= radius; k++) {
+        const uint16_t * p = line[k < last ? k : last];
+        for (int j = 0; j < 3; j++) {
+            sum[j] += (uint64_t) p[j] * (radius + 1 - k);
+            sum_in[j] += p[j];
+        }
+    }
+
+    for (int32_t i = 0; ; i++) {
+        uint8_t (*dst)[4] = &pixels[i * stride];
+        const uint16_t * entering = line[i + radius + 1 < last ? i + radius + 1 : last];
+        const uint16_t * leaving = line[i - radius > 0 ? i - radius : 0];
+        const uint16_t * outside = line[i - radius - 1 > 0 ? i - radius - 1 : 0];
+        for (int j = 0; j < 3; j++) {
+            uint64_t box = (uint64_t) sum_out[j] + sum_in[j] + outside[j] + entering[j];
+            uint64_t weighted = sum[j] * RADIUS_SCALE + fraction * box;
+            (*dst)[j] = to_srgb[linear_div(weighted, div_sum, inv_div_sum)];
+        }
+        if (ctm) {
+            color_transform(*dst, ctm);
+        }
+        if (i == last) {
+            break;
+        }
+        const uint16_t * centre = line[i + 1];
+        for (int j = 0; j < 3; j++) {
+            sum[j] = sum[j] - sum_out[j] + sum_in[j] + entering[j];
+            sum_out[j] = sum_out[j] - leaving[j] + centre[j];
+            sum_in[j] = sum_in[j] + entering[j] - centre[j];
+        }
+    }
+}
+
+/// Stackblur for a radius of radius + fraction / RADIUS_SCALE. The weights are
+/// those of blur_line for the whole radius, plus fraction times a box filter one
+/// pixel wider on each side, so they grow smoothly from one radius to the next.
+/// The box is the pixels leaving and entering the stack plus the two just outside
+/// it, so it comes out of the same sweep. The line is copied into line first.
+static void blur_line_fraction(
+        uint8_t * bitmap, int32_t w, int32_t h, int32_t img_stride,
+        int32_t radius, int32_t fraction,
+        int32_t line_idx, bool horizontal,
+        const int32_t * ctm,
+        uint8_t (*line)[4]
+) {
+    int32_t stride, len;
+    uint8_t (*pixels)[4];
+    if (horizontal) {
+        stride = 1;
+        len = w;
+        pixels = (uint8_t(*)[4])(&bitmap[img_stride * line_idx]);
+    } else {
+        stride = img_stride / 4;
+        len = h;
+        pixels = &(((uint8_t(*)[4])bitmap)[line_idx]);
+    }
+    if (stride == 1) {
+        memcpy(line, pixels, len * 4);
+    } else {
+        for (int32_t i = 0; i < len; i++) {
+            memcpy(line[i], pixels[i * stride], 4);
+        }
+    }
+
+    int32_t last = len - 1;
+    uint64_t div_sum = (uint64_t) (radius + 1) * (radius + 1) * RADIUS_SCALE + (uint64_t) fraction * (2 * radius + 3);
+    double inv_div_sum = 1.0 / div_sum;
+    uint32_t sum[3], sum_out[3], sum_in[3];
+    for (int j = 0; j < 3; j++) {
+        sum[j] = line[0][j] * (uint32_t) ((radius + 1) * (radius + 2) / 2);
+        sum_out[j] = line[0][j] * (uint32_t) (radius + 1);
+        sum_in[j] = 0;
+    }
+    for (int32_t k = 1; k <= radius; k++) {
+        const uint8_t * p = line[k < last ? k : last];
+        for (int j = 0; j < 3; j++) {
+            sum[j] += p[j] * (uint32_t) (radius + 1 - k);
+            sum_in[j] += p[j];
+        }
+    }
+
+    for (int32_t i = 0; ; i++) {
+        uint8_t (*dst)[4] = &pixels[i * stride];
+        const uint8_t * entering = line[i + radius + 1 < last ? i + radius + 1 : last];
+        const uint8_t * leaving = line[i - radius > 0 ? i - radius : 0];
+        const uint8_t * outside = line[i - radius - 1 > 0 ? i - radius - 1 : 0];
+        for (int j = 0; j < 3; j++) {
+            uint32_t box = sum_out[j] + sum_in[j] + outside[j] + entering[j];
+            uint64_t weighted = (uint64_t) sum[j] * RADIUS_SCALE + (uint64_t) fraction * box;
+            (*dst)[j] = (uint8_t) linear_div(weighted, div_sum, inv_div_sum);
+        }
+        if (ctm) {
+            color_transform(*dst, ctm);
+        }
+        if (i == last) {
+            break;
+        }
+        const uint8_t * centre = line[i + 1];
+        for (int j = 0; j < 3; j++) {
+            sum[j] = sum[j] - sum_out[j] + sum_in[j] + entering[j];
+            sum_out[j] = sum_out[j] - leaving[j] + centre[j];
+            sum_in[j] = sum_in[j] + entering[j] - centre[j];
+        }
+    }
+}
+
+/// The radius of one output of stackblurJobs and the scratch memory of its kernel
+struct kernel {
+    uint8_t* dst;
+    int32_t radius;
+    int32_t fraction;
+    bool small;
+    bool linear;
+    uint8_t* stack;
+};
+
+int stackblurJob(
+        const uint8_t* src, ///< source image data, read by the horizontal pass
+        int32_t src_w,      ///< source width
+        int32_t src_h,      ///< source height
+        int32_t src_stride, ///< number of bytes between source rows
+        uint8_t* dst,       ///< output image data
+        int32_t w,          ///< image width
+        int32_t h,          ///< image height
+        int32_t stride,     ///< number of bytes between rows
+        int32_t radius,     ///< blur intensity, in 1/RADIUS_SCALE pixels
+        const int32_t* ctm, ///< color transform applied by this pass, or NULL
+        int32_t min,        ///< first line to blur
+        int32_t max,        ///< one past the last line to blur
+        bool horizontal,    ///< true if blur should be done horizontally
+        bool linear         ///< true to blur in linear light
+) {
+    return stackblurJobs(src, src_w, src_h, src_stride, &dst, w, h, stride, &radius, 1,
+                         ctm, min, max, horizontal, linear);
+}
+
+int stackblurJobs(
+        const uint8_t* src, ///< source image data, read by the horizontal pass
+        int32_t src_w,      ///< source width
+        int32_t src_h,      ///< source height
+        int32_t src_stride, ///< number of bytes between source rows
+        uint8_t* const* dsts, ///< output image data, one per radius
+        int32_t w,          ///< image width
+        int32_t h,          ///< image height
+        int32_t stride,     ///< number of bytes between rows
+        const int32_t* radii, ///< blur intensity of each output, in 1/RADIUS_SCALE pixels
+        int32_t count,      ///< number of outputs
+        const int32_t* ctm, ///< color transform applied by this pass, or NULL
+        int32_t min,        ///< first line to blur
+        int32_t max,        ///< one past the last line to blur
+        bool horizontal,    ///< true if blur should be done horizontally
+        bool linear         ///< true to blur in linear light
+) {
+    bool blur_alpha = false;
+    int channels = 3 + blur_alpha;
+    bool copy = horizontal && src != dsts[0];
+    bool scale = copy && (src_w != w || src_h != h);
+    int32_t len = w > h ? w : h;
+    struct kernel* kernels = calloc(count, sizeof(struct kernel));
+    uint32_t (*acc)[4] = NULL;
+    int ret = 1;
+    if (!kernels) {
+        return 1;
+    }
+    for (int32_t k = 0; k < count; k++) {
+        struct kernel* kernel = &kernels[k];
+        kernel->dst = dsts[k];
+        kernel->fraction = radii[k] % RADIUS_SCALE;
+        kernel->radius = radii[k] / RADIUS_SCALE;
+        kernel->small = kernel->radius <= SMALL_RADIUS_MAX;
+        kernel->linear = linear && (kernel->radius > 0 || kernel->fraction > 0);
+        if (kernel->linear) {
+            pthread_once(&linear_once, init_linear_tables);
+        }
+        // Small radii need a padded copy of the line instead of the stack,
+        // linear light a copy of the line decoded to 16 bits, and fractional
+        // radii a plain copy of the line
+        kernel->stack = kernel->linear
+                ? malloc(len * 3 * sizeof(uint16_t))
+                : kernel->fraction > 0
+                ? malloc(len * 4 * sizeof(uint8_t))
+                : kernel->small
+                ? malloc((len + 2 * SMALL_RADIUS_MAX) * 4 * sizeof(uint8_t))
+                : malloc((kernel->radius * 2 + 1) * channels * sizeof(uint8_t));
+        if (!kernel->stack) {
+            goto done;
+        }
+    }
+    if (scale) {
+        acc = malloc(w * sizeof(*acc));
+        if (!acc) {
+            goto done;
+        }
+    }
+
+    if (max > (horizontal ? h : w)) {
+        max = horizontal ? h : w;
+    }
+
+    for (int i = min; i < max; i++) {
+        // The first pass pulls each row straight from src into the first output,
+        // and copies it from there into the others while it is still in cache,
+        // so src is only read once however many radii there are.
+        if (scale) {
+            scale_row(src, src_w, src_h, src_stride, w, h, i, (uint8_t(*)[4])(&dsts[0][stride * i]), acc);
+        } else if (copy) {
+            memcpy(&dsts[0][stride * i], &src[src_stride * i], w * 4);
+        }
+        if (horizontal) {
+            for (int32_t k = 1; k < count; k++) {
+                memcpy(&dsts[k][stride * i], &dsts[0][stride * i], w * 4);
+            }
+        }
+        for (int32_t k = 0; k < count; k++) {
+            struct kernel* kernel = &kernels[k];
+            uint8_t* dst = kernel->dst;
+            int32_t radius = kernel->radius;
+            if (kernel->linear) {
+                blur_line_linear(dst, w, h, stride, radius, kernel->fraction, i, horizontal, ctm,
+                                 (uint16_t(*)[3]) kernel->stack);
+            } else if (kernel->fraction > 0) {
+                blur_line_fraction(dst, w, h, stride, radius, kernel->fraction, i, horizontal, ctm,
+                                   (uint8_t(*)[4]) kernel->stack);
+            } else if (radius > 0 && kernel->small) {
+                blur_line_small(dst, w, h, stride, radius, blur_alpha, i, horizontal, ctm,
+                                (uint8_t(*)[4]) kernel->stack);
+            } else if (radius > 0) {
+                blur_line(dst, w, h, stride, radius, blur_alpha, i, horizontal, ctm, kernel->stack);
+            } else if (ctm) {
+                // Only the transform, on the row or the column
+                int32_t line_len = horizontal ? w : h;
+                for (int32_t j = 0; j < line_len; j++) {
+                    color_transform(horizontal ? &dst[stride * i + 4 * j] : &dst[stride * j + 4 * i], ctm);
+                }
+            }
+        }
+    }
+    ret = 0;
+
+done:
+    free(acc);
+    for (int32_t k = 0; k < count; k++) {
+        free(kernels[k].stack);
+    }
+    free(kernels);
+    return ret;
+}
@@ -0,0 +1,36 @@
+#ifndef STACKBLUR_H
+#define STACKBLUR_H
+
+#include <stdbool.h>
+#include <stdint.h>
+
+/// Stack blur kernel with no Android or JNI dependencies, shared by the JNI
+/// library and the host library used through the Foreign Function API.
+
+/// Radii are fixed point with this many steps per pixel, see LineBlur.RADIUS_SCALE
+#define RADIUS_SCALE 256
+
+/// Blur lines [min, max) of a w x h RGBA image in place. The horizontal pass
+/// first copies each row from src into dst, box-filtering it if the sizes differ;
+/// the vertical pass only uses dst. ctm is a 4x5 fixed point color matrix applied
+/// as this pass writes its output, or NULL; only the last pass should get it.
+/// With linear, the colors are blurred in linear light rather than directly on
+/// the sRGB values. radius is in 1/RADIUS_SCALE pixels.
+/// Returns 0, or 1 if the scratch memory could not be allocated.
+int stackblurJob(
+        const uint8_t* src, int32_t src_w, int32_t src_h, int32_t src_stride,
+        uint8_t* dst, int32_t w, int32_t h, int32_t stride,
+        int32_t radius, const int32_t* ctm,
+        int32_t min, int32_t max, bool horizontal, bool linear);
+
+/// Blur lines [min, max) of src into count images of the same size and layout,
+/// each by its own radius, as stackblurJob would one after the other. The
+/// horizontal pass reads and scales each row of src once for all of them.
+/// The images must be distinct.
+int stackblurJobs(
+        const uint8_t* src, int32_t src_w, int32_t src_h, int32_t src_stride,
+        uint8_t* const* dsts, int32_t w, int32_t h, int32_t stride,
+        const int32_t* radii, int32_t count, const int32_t* ctm,
+        int32_t min, int32_t max, bool horizontal, bool linear);
+
+#endif
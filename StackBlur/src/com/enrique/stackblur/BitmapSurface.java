@@ -0,0 +1,39 @@
+package com.enrique.stackblur;
+
+import android.graphics.Bitmap;
+
+/**
+ * A Bitmap as a {@link PixelSurface}. Bitmap.getPixels returns unpremultiplied colors.
+ */
+final class BitmapSurface implements PixelSurface {
+	private final Bitmap _bitmap;
+
+	BitmapSurface(Bitmap bitmap) {
+		_bitmap = bitmap;
+	}
+
+	@Override
+	public int getWidth() {
+		return _bitmap.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return _bitmap.getHeight();
+	}
+
+	@Override
+	public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		_bitmap.getPixels(pixels, offset, stride, x, y, width, height);
+	}
+
+	@Override
+	public void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		_bitmap.setPixels(pixels, offset, stride, x, y, width, height);
+	}
+
+	@Override
+	public boolean isPremultiplied() {
+		return false;
+	}
+}
@@ -0,0 +1,110 @@
+package com.enrique.stackblur;
+
+import android.graphics.Bitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes bitmaps into files. Asynchronous writes go to a thread of their own,
+ * created when first needed, so encoding never holds up a blur thread or the caller.
+ *
+ * A file only appears once it is complete: the bitmap is compressed into a temporary
+ * file next to it, which is then renamed over it.
+ */
+final class BitmapWriter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long IDLE_TIMEOUT_MILLIS = 5000;
+
+	private static ThreadPoolExecutor executor;
+
+	private BitmapWriter() {
+	}
+
+	/**
+	 * Encode the bitmap on the I/O thread. The bitmap must not be recycled until the
+	 * future completes.
+	 * @return a future giving the file, or throwing the IOException if it failed
+	 */
+	static Future<File> writeAsync(final Bitmap bitmap, final File file, final Bitmap.CompressFormat format,
+			final int quality) {
+		checkQuality(quality);
+		FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+			@Override
+			public File call() throws IOException {
+				write(bitmap, file, format, quality);
+				return file;
+			}
+		});
+		executor().execute(task);
+		return task;
+	}
+
+	/**
+	 * Encode the bitmap on this thread
+	 */
+	static void write(Bitmap bitmap, File file, Bitmap.CompressFormat format, int quality) throws IOException {
+		checkQuality(quality);
+		File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".part");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE);
+		boolean complete = false;
+		try {
+			if (!bitmap.compress(format, quality, out)) {
+				throw new IOException("Could not encode " + file + " as " + format);
+			}
+			out.close();
+			complete = true;
+		} finally {
+			if (!complete) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// Already failing
+				}
+				temp.delete();
+			}
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp + " to " + file);
+		}
+	}
+
+	private static void checkQuality(int quality) {
+		if (quality < 0 || quality > 100) {
+			throw new IllegalArgumentException("quality must be between 0 and 100");
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor executor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(1, 1, IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable runnable) {
+							Thread thread = new Thread(new Runnable() {
+								@Override
+								public void run() {
+									android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+									runnable.run();
+								}
+							}, "StackBlur-io");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+}
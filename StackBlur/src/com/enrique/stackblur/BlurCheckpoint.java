@@ -0,0 +1,17 @@
+package com.enrique.stackblur;
+
+/**
+ * Called by the blur threads between chunks of lines, so a long blur can be
+ * abandoned part-way through a pass.
+ */
+interface BlurCheckpoint {
+	/**
+	 * Number of lines blurred between two checks
+	 */
+	int CHUNK_LINES = 32;
+
+	/**
+	 * @throws java.util.concurrent.CancellationException to abandon the blur
+	 */
+	void check();
+}
@@ -0,0 +1,285 @@
+package com.enrique.stackblur;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the pieces of a blur pass on the configured executor.
+ * The pool is only created when the first blur needs it.
+ *
+ * The library's own pool runs queued work by priority, then deadline, then in the
+ * order it was queued. An executor supplied by the app runs it in its own order.
+ */
+final class BlurExecutor {
+	private static final AtomicLong sequence = new AtomicLong();
+	private static final AtomicInteger urgentBlurs = new AtomicInteger();
+
+	private static BlurExecutorConfig config = new BlurExecutorConfig.Builder().build();
+	private static Executor executor;
+	private static ThreadPoolExecutor ownedPool;
+	/** Hands delayed work to the executor once it is due, created when first needed */
+	private static ScheduledThreadPoolExecutor timer;
+
+	private BlurExecutor() {
+	}
+
+	static synchronized void configure(BlurExecutorConfig newConfig) {
+		shutdown();
+		config = newConfig;
+	}
+
+	/**
+	 * Shut down the library's own pool; it will be created again if needed
+	 */
+	static synchronized void shutdown() {
+		if (ownedPool != null) {
+			ownedPool.shutdown();
+			ownedPool = null;
+		}
+		executor = null;
+	}
+
+	/**
+	 * Create the library's own pool and start all of its threads. An executor supplied
+	 * by the app is only looked up.
+	 */
+	static synchronized void prestart() {
+		executor();
+		if (ownedPool != null) {
+			ownedPool.prestartAllCoreThreads();
+		}
+	}
+
+	/**
+	 * The number of pieces each blur pass should be split into
+	 */
+	static synchronized int threads() {
+		return config.parallelism;
+	}
+
+	/**
+	 * Run a single piece of work on the blur executor
+	 * @return false if the executor rejected it, such as an app's executor that was shut down
+	 */
+	static boolean execute(Runnable runnable, BlurPriority priority) {
+		try {
+			executor().execute(new PrioritizedTask(runnable, priority, Long.MAX_VALUE));
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Run a short piece of work on the timer thread once the delay has passed, so
+	 * nothing holds a blur thread while waiting. It should only hand the real work
+	 * on to {@link #execute}.
+	 */
+	static synchronized void schedule(Runnable runnable, long delayNanos) {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "StackBlur-timer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			timer.setKeepAliveTime(BlurExecutorConfig.DEFAULT_IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			timer.allowCoreThreadTimeOut(true);
+		}
+		timer.schedule(runnable, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Mark the start of an urgent blur; background blurs help with it until it ends
+	 */
+	static void beginUrgent() {
+		urgentBlurs.incrementAndGet();
+	}
+
+	static void endUrgent() {
+		urgentBlurs.decrementAndGet();
+	}
+
+	/**
+	 * While an urgent blur is running, run the pieces of it still queued on the
+	 * library's pool on this thread before returning. The thread is never blocked,
+	 * so every pool thread stays free to take urgent work.
+	 */
+	static void yieldToUrgent() {
+		if (urgentBlurs.get() == 0) {
+			return;
+		}
+		ThreadPoolExecutor pool = ownedPool();
+		if (pool == null) {
+			return;
+		}
+		BlockingQueue<Runnable> queue = pool.getQueue();
+		while (urgentBlurs.get() > 0) {
+			Runnable head = queue.peek();
+			if (!(head instanceof PrioritizedTask) || !((PrioritizedTask) head).isUrgentPiece()) {
+				return;
+			}
+			// Another thread may have taken it since peek()
+			if (queue.remove(head)) {
+				head.run();
+			}
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor ownedPool() {
+		return ownedPool;
+	}
+
+	private static synchronized Executor executor() {
+		if (executor == null) {
+			if (config.executor != null) {
+				executor = config.executor;
+			} else {
+				ownedPool = createPool(config);
+				executor = ownedPool;
+			}
+		}
+		return executor;
+	}
+
+	private static ThreadPoolExecutor createPool(BlurExecutorConfig config) {
+		long idleTimeout = config.idleTimeoutMillis;
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(config.parallelism, config.parallelism,
+				(idleTimeout > 0) ? idleTimeout : Long.MAX_VALUE, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(),
+				new BlurThreadFactory(config.threadFactory, config.threadPriority));
+		if (idleTimeout > 0) {
+			pool.allowCoreThreadTimeOut(true);
+		}
+		return pool;
+	}
+
+	/**
+	 * Run all jobs and wait for them. The calling thread runs the first job, and then
+	 * any job the pool has not started yet, so a blur never waits on a busy pool
+	 * and can be started from a pool thread without deadlocking.
+	 *
+	 * An exception thrown by any job is rethrown here, once every job has stopped.
+	 */
+	static void invokeAll(List<? extends Callable<Void>> jobs, BlurParams params) throws InterruptedException {
+		int count = jobs.size();
+		ArrayList<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(count);
+		Executor executor = (count > 1) ? executor() : null;
+		for (int i = 0; i < count; i++) {
+			FutureTask<Void> task = new FutureTask<Void>(jobs.get(i));
+			tasks.add(task);
+			if (i > 0) {
+				try {
+					executor.execute(new PrioritizedTask(task, params.priority, params.deadlineNanos));
+				} catch (RejectedExecutionException e) {
+					// Run on this thread below
+				}
+			}
+		}
+		// FutureTask.run() does nothing if the task has already been started elsewhere
+		for (int i = 0; i < count; i++) {
+			tasks.get(i).run();
+		}
+		// Wait for every job, so none is still writing to the bitmap when a failure is rethrown
+		Throwable failure = null;
+		for (int i = 0; i < count; i++) {
+			try {
+				tasks.get(i).get();
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			}
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+	private static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+		private final Runnable _runnable;
+		private final int _priority;
+		private final long _deadline;
+		private final long _sequence;
+
+		PrioritizedTask(Runnable runnable, BlurPriority priority, long deadline) {
+			_runnable = runnable;
+			_priority = priority.ordinal();
+			_deadline = deadline;
+			_sequence = sequence.getAndIncrement();
+		}
+
+		/**
+		 * Whether this is a piece of an urgent blur, which reports its own failure
+		 * to the blur waiting for it and so can be run on any thread
+		 */
+		boolean isUrgentPiece() {
+			return _priority == BlurPriority.URGENT.ordinal() && _runnable instanceof FutureTask;
+		}
+
+		@Override
+		public void run() {
+			_runnable.run();
+		}
+
+		@Override
+		public int compareTo(PrioritizedTask other) {
+			if (_priority != other._priority) {
+				return _priority < other._priority ? -1 : 1;
+			}
+			if (_deadline != other._deadline) {
+				return _deadline < other._deadline ? -1 : 1;
+			}
+			return _sequence < other._sequence ? -1 : (_sequence == other._sequence ? 0 : 1);
+		}
+	}
+
+	private static class BlurThreadFactory implements ThreadFactory {
+		private final AtomicInteger _count = new AtomicInteger();
+		private final ThreadFactory _delegate;
+		private final int _priority;
+
+		BlurThreadFactory(ThreadFactory delegate, int priority) {
+			_delegate = delegate;
+			_priority = priority;
+		}
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			Runnable withPriority = new Runnable() {
+				@Override
+				public void run() {
+					android.os.Process.setThreadPriority(_priority);
+					runnable.run();
+				}
+			};
+			if (_delegate != null) {
+				return _delegate.newThread(withPriority);
+			}
+			Thread thread = new Thread(withPriority, "StackBlur-" + _count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.enrique.stackblur;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls the threads used to split Java and native blurs.
+ *
+ * By default the library lazily creates its own pool with one thread per
+ * processor, which shuts its threads down after a few seconds without work.
+ * Either tune that pool, or hand over an executor owned by the application:
+ * <pre>
+ *   StackBlurManager.setExecutorConfig(new BlurExecutorConfig.Builder()
+ *       .setParallelism(2)
+ *       .setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+ *       .build());
+ * </pre>
+ *
+ * @see StackBlurManager#setExecutorConfig(BlurExecutorConfig)
+ */
+public final class BlurExecutorConfig {
+	static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 10000;
+
+	final Executor executor;
+	final ThreadFactory threadFactory;
+	final int parallelism;
+	final int threadPriority;
+	final long idleTimeoutMillis;
+
+	private BlurExecutorConfig(Builder builder) {
+		executor = builder.executor;
+		threadFactory = builder.threadFactory;
+		parallelism = (builder.parallelism > 0) ? builder.parallelism : Runtime.getRuntime().availableProcessors();
+		threadPriority = builder.threadPriority;
+		idleTimeoutMillis = builder.idleTimeoutMillis;
+	}
+
+	/**
+	 * The number of pieces each blur pass is split into
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public static final class Builder {
+		private Executor executor;
+		private ThreadFactory threadFactory;
+		private int parallelism;
+		private int threadPriority = android.os.Process.THREAD_PRIORITY_DEFAULT;
+		private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+		/**
+		 * Run blur work on an executor owned by the application. The library never
+		 * shuts it down, and the thread factory, priority and idle timeout are ignored.
+		 * The calling thread always takes part in the work, so it is safe to start a
+		 * blur from one of the executor's own threads.
+		 */
+		public Builder setExecutor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * Create the threads of the library's own pool with this factory
+		 */
+		public Builder setThreadFactory(ThreadFactory threadFactory) {
+			this.threadFactory = threadFactory;
+			return this;
+		}
+
+		/**
+		 * Split each pass into this many pieces, for example the number of big cores.
+		 * Defaults to the number of available processors.
+		 */
+		public Builder setParallelism(int parallelism) {
+			if (parallelism < 1) {
+				throw new IllegalArgumentException("parallelism must be >= 1");
+			}
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * Priority of the pool threads, as used by android.os.Process.setThreadPriority()
+		 */
+		public Builder setThreadPriority(int threadPriority) {
+			this.threadPriority = threadPriority;
+			return this;
+		}
+
+		/**
+		 * Stop pool threads after they have had no work for this long.
+		 * Threads are started again on demand. 0 keeps them alive forever.
+		 */
+		public Builder setIdleTimeout(long timeout, TimeUnit unit) {
+			if (timeout < 0) {
+				throw new IllegalArgumentException("timeout must be >= 0");
+			}
+			this.idleTimeoutMillis = unit.toMillis(timeout);
+			return this;
+		}
+
+		public BlurExecutorConfig build() {
+			return new BlurExecutorConfig(this);
+		}
+	}
+}
@@ -0,0 +1,403 @@
+package com.enrique.stackblur;
+
+import android.graphics.Bitmap;
+
+import java.util.LinkedList;
+
+/**
+ * Blurs a continuous stream of frames, such as camera preview or video, on the blur executor.
+ *
+ * Frames go through a fixed set of reusable bitmaps, so no bitmap is allocated per frame;
+ * each blur still allocates its line buffers, a few times the width of a frame per thread.
+ * The producer fills an input buffer and queues it:
+ * <pre>
+ *   Bitmap input = pipeline.dequeueInputBuffer();
+ *   if (input != null) {
+ *       // draw the frame into input
+ *       pipeline.queueInputBuffer(input, timestampNanos);
+ *   }
+ * </pre>
+ * and the consumer takes the newest blurred frame whenever it is ready to draw:
+ * <pre>
+ *   BlurFramePipeline.Frame frame = pipeline.acquireLatestFrame();
+ *   if (frame != null) {
+ *       canvas.drawBitmap(frame.getBitmap(), ...);
+ *       pipeline.releaseFrame(frame);
+ *   }
+ * </pre>
+ * The producer never blocks. When the blur falls behind, a queued frame that has not
+ * been started is replaced by the next one, and a blurred frame that has not been
+ * acquired is replaced by a newer one: the latest frame always wins.
+ */
+public class BlurFramePipeline {
+	/**
+	 * Notified when a new blurred frame can be acquired
+	 */
+	public interface Listener {
+		/**
+		 * Called on a blur thread. Post to your own thread before acquiring the frame if needed.
+		 */
+		void onFrameAvailable(BlurFramePipeline pipeline);
+	}
+
+	/**
+	 * A blurred frame. Hand it back with {@link #releaseFrame(Frame)} when done with it.
+	 */
+	public static final class Frame {
+		private final Bitmap _bitmap;
+		long timestampNanos;
+		long latencyNanos;
+		long queuedAt;
+
+		Frame(Bitmap bitmap) {
+			_bitmap = bitmap;
+		}
+
+		public Bitmap getBitmap() {
+			return _bitmap;
+		}
+
+		/**
+		 * The timestamp passed with the input frame
+		 */
+		public long getTimestampNanos() {
+			return timestampNanos;
+		}
+
+		/**
+		 * Time from queueing the input to the blurred frame being ready
+		 */
+		public long getLatencyNanos() {
+			return latencyNanos;
+		}
+	}
+
+	private final Object _lock = new Object();
+	private final BlurProcess _blurProcess;
+	private final LinkedList<Frame> _freeInputs = new LinkedList<Frame>();
+	private final LinkedList<Frame> _freeOutputs = new LinkedList<Frame>();
+	/** Input buffers handed to the producer */
+	private final LinkedList<Frame> _inputsOut = new LinkedList<Frame>();
+	private final LatencyHistogram _latency = new LatencyHistogram();
+
+	/** The newest queued input, not yet started */
+	private Frame _pendingInput;
+	/** The newest blurred frame, not yet acquired */
+	private Frame _readyOutput;
+	private boolean _running;
+	private boolean _closed;
+
+	private volatile float _radius;
+	private volatile ColorTransform _transform;
+	private volatile boolean _linearLight;
+	private volatile Listener _listener;
+
+	private long _framesQueued;
+	private long _framesBlurred;
+	private long _framesDropped;
+	private long _firstFrameAt;
+	private long _lastFrameAt;
+
+	private final Runnable _drain = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * @param inputWidth   size of the frames the producer supplies
+	 * @param inputHeight  size of the frames the producer supplies
+	 * @param outputWidth  size of the blurred frames; smaller than the input makes the blur cheaper
+	 * @param outputHeight size of the blurred frames
+	 * @param radius       blur radius, in input pixels
+	 * @param bufferCount  number of input and of output buffers, at least 2
+	 * @param useNative    blur with the native library rather than Java
+	 */
+	public BlurFramePipeline(int inputWidth, int inputHeight, int outputWidth, int outputHeight,
+	                         float radius, int bufferCount, boolean useNative) {
+		if (bufferCount < 2) {
+			throw new IllegalArgumentException("bufferCount must be >= 2");
+		}
+		if (radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+		_blurProcess = useNative ? BlurService.nativeProcess() : BlurService.javaProcess();
+		_radius = radius;
+		for (int i = 0; i < bufferCount; i++) {
+			_freeInputs.add(new Frame(Bitmap.createBitmap(inputWidth, inputHeight, Bitmap.Config.ARGB_8888)));
+			_freeOutputs.add(new Frame(Bitmap.createBitmap(outputWidth, outputHeight, Bitmap.Config.ARGB_8888)));
+		}
+	}
+
+	public void setListener(Listener listener) {
+		_listener = listener;
+	}
+
+	/**
+	 * Change the radius, from the next frame on
+	 */
+	public void setRadius(float radius) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+		_radius = radius;
+	}
+
+	/**
+	 * Apply a color transform to every frame, from the next frame on, or null for none
+	 */
+	public void setColorTransform(ColorTransform transform) {
+		_transform = transform;
+	}
+
+	/**
+	 * Blur in linear light, from the next frame on
+	 * @see StackBlurManager#setLinearLight(boolean)
+	 */
+	public void setLinearLight(boolean linearLight) {
+		_linearLight = linearLight;
+	}
+
+	/**
+	 * Returns a free input buffer for the producer to draw the next frame into,
+	 * or null if all of them are queued or being blurred. Never blocks.
+	 */
+	public Bitmap dequeueInputBuffer() {
+		synchronized (_lock) {
+			if (_closed) {
+				return null;
+			}
+			Frame frame = _freeInputs.poll();
+			if (frame == null) {
+				// Every buffer is busy, reclaim the one waiting to be blurred
+				frame = _pendingInput;
+				_pendingInput = null;
+				if (frame != null) {
+					_framesDropped++;
+				}
+			}
+			if (frame == null) {
+				return null;
+			}
+			_inputsOut.add(frame);
+			return frame.getBitmap();
+		}
+	}
+
+	/**
+	 * Queue a filled input buffer for blurring. If an earlier frame is still waiting
+	 * to be started it is dropped in favour of this one.
+	 * @param buffer a bitmap returned by {@link #dequeueInputBuffer()}
+	 */
+	public void queueInputBuffer(Bitmap buffer, long timestampNanos) {
+		synchronized (_lock) {
+			Frame frame = removeByBitmap(_inputsOut, buffer);
+			if (frame == null) {
+				throw new IllegalArgumentException("buffer was not dequeued from this pipeline");
+			}
+			if (_closed) {
+				buffer.recycle();
+				return;
+			}
+			frame.timestampNanos = timestampNanos;
+			frame.queuedAt = System.nanoTime();
+			_framesQueued++;
+			if (_pendingInput != null) {
+				_freeInputs.add(_pendingInput);
+				_framesDropped++;
+			}
+			_pendingInput = frame;
+			scheduleLocked();
+		}
+	}
+
+	/**
+	 * Returns the newest blurred frame, or null if there is none since the last call.
+	 * The frame belongs to the caller until it is released.
+	 */
+	public Frame acquireLatestFrame() {
+		synchronized (_lock) {
+			Frame frame = _readyOutput;
+			_readyOutput = null;
+			return frame;
+		}
+	}
+
+	/**
+	 * Give a frame back to the pipeline so its bitmap can be reused
+	 */
+	public void releaseFrame(Frame frame) {
+		synchronized (_lock) {
+			if (_closed) {
+				frame.getBitmap().recycle();
+				return;
+			}
+			_freeOutputs.add(frame);
+			// The blur may have been waiting for an output buffer
+			scheduleLocked();
+		}
+	}
+
+	/**
+	 * Stop accepting frames and free the buffers. Frames still held by the
+	 * consumer are freed when they are released.
+	 */
+	public void close() {
+		synchronized (_lock) {
+			_closed = true;
+			if (_pendingInput != null) {
+				_freeInputs.add(_pendingInput);
+				_pendingInput = null;
+			}
+			if (_readyOutput != null) {
+				_freeOutputs.add(_readyOutput);
+				_readyOutput = null;
+			}
+			if (!_running) {
+				recycleLocked();
+			}
+		}
+	}
+
+	public long getFramesQueued() {
+		synchronized (_lock) {
+			return _framesQueued;
+		}
+	}
+
+	public long getFramesBlurred() {
+		synchronized (_lock) {
+			return _framesBlurred;
+		}
+	}
+
+	/**
+	 * Frames which were replaced by a newer one, either before being blurred or before being acquired
+	 */
+	public long getFramesDropped() {
+		synchronized (_lock) {
+			return _framesDropped;
+		}
+	}
+
+	/**
+	 * Blurred frames per second, between the first and the most recent blurred frame
+	 */
+	public double getThroughput() {
+		synchronized (_lock) {
+			long elapsed = _lastFrameAt - _firstFrameAt;
+			if (_framesBlurred < 2 || elapsed <= 0) {
+				return 0;
+			}
+			return (_framesBlurred - 1) * 1e9 / elapsed;
+		}
+	}
+
+	/**
+	 * Time from queueing an input to its blurred frame being ready, in nanoseconds
+	 */
+	public LatencyHistogram getLatency() {
+		return _latency;
+	}
+
+	private void scheduleLocked() {
+		if (!_running && !_closed && _pendingInput != null && (!_freeOutputs.isEmpty() || _readyOutput != null)) {
+			_running = true;
+			// Left to the next input or release if the executor refuses it
+			if (!BlurExecutor.execute(_drain, BlurPriority.NORMAL)) {
+				_running = false;
+			}
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			Frame input;
+			Frame output;
+			synchronized (_lock) {
+				input = _pendingInput;
+				output = _freeOutputs.poll();
+				if (output == null && input != null && _readyOutput != null) {
+					// The consumer has not taken the last frame; this one is newer
+					output = _readyOutput;
+					_readyOutput = null;
+					_framesDropped++;
+				}
+				if (_closed || input == null || output == null) {
+					if (output != null) {
+						_freeOutputs.add(output);
+					}
+					_running = false;
+					if (_closed) {
+						recycleLocked();
+					}
+					return;
+				}
+				_pendingInput = null;
+			}
+
+			boolean blurred = false;
+			try {
+				BlurParams params = new BlurParams(_transform, null, null);
+				params.linear = _linearLight;
+				_blurProcess.blur(input.getBitmap(), output.getBitmap(), _radius, params);
+				blurred = true;
+			} finally {
+				Listener listener = null;
+				synchronized (_lock) {
+					_freeInputs.add(input);
+					if (_closed) {
+						// Nobody will acquire the frame, so free it with the rest
+						_freeOutputs.add(output);
+						_running = false;
+						recycleLocked();
+					} else if (blurred) {
+						long now = System.nanoTime();
+						output.timestampNanos = input.timestampNanos;
+						output.latencyNanos = now - input.queuedAt;
+						_latency.record(output.latencyNanos);
+						if (_framesBlurred == 0) {
+							_firstFrameAt = now;
+						}
+						_lastFrameAt = now;
+						_framesBlurred++;
+						if (_readyOutput != null) {
+							_freeOutputs.add(_readyOutput);
+							_framesDropped++;
+						}
+						_readyOutput = output;
+						listener = _listener;
+					} else {
+						_freeOutputs.add(output);
+						_running = false;
+					}
+				}
+				if (listener != null) {
+					listener.onFrameAvailable(this);
+				}
+			}
+		}
+	}
+
+	private void recycleLocked() {
+		for (Frame frame : _freeInputs) {
+			frame.getBitmap().recycle();
+		}
+		for (Frame frame : _freeOutputs) {
+			frame.getBitmap().recycle();
+		}
+		_freeInputs.clear();
+		_freeOutputs.clear();
+	}
+
+	private static Frame removeByBitmap(LinkedList<Frame> frames, Bitmap bitmap) {
+		for (Frame frame : frames) {
+			if (frame.getBitmap() == bitmap) {
+				frames.remove(frame);
+				return frame;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,109 @@
+package com.enrique.stackblur;
+
+/**
+ * A {@link BlurMetricsListener} which aggregates every blur into histograms,
+ * for exporting percentiles. Safe to share between threads.
+ *
+ * <pre>
+ *   BlurMetrics metrics = new BlurMetrics();
+ *   StackBlurManager.setMetricsListener(metrics);
+ *   ...
+ *   long p95 = metrics.getTotal().getPercentile(0.95);
+ * </pre>
+ */
+public class BlurMetrics implements BlurMetricsListener {
+	private static final BlurPhase[] PHASES = BlurPhase.values();
+
+	private final LatencyHistogram _total = new LatencyHistogram();
+	private final LatencyHistogram _queueWait = new LatencyHistogram();
+	private final LatencyHistogram _bytes = new LatencyHistogram();
+	private final LatencyHistogram _late = new LatencyHistogram();
+	private final LatencyHistogram[] _phases = new LatencyHistogram[PHASES.length];
+
+	public BlurMetrics() {
+		for (int i = 0; i < _phases.length; i++) {
+			_phases[i] = new LatencyHistogram();
+		}
+	}
+
+	@Override
+	public void onBlurFinished(BlurStats stats) {
+		_total.record(stats.getTotalNanos());
+		_queueWait.record(stats.getQueueWaitNanos());
+		_bytes.record(stats.getBytesTouched());
+		if (stats.getLateNanos() != 0) {
+			_late.record(stats.getLateNanos());
+		}
+		for (BlurPhase phase : PHASES) {
+			long nanos = stats.getPhaseNanos(phase);
+			if (nanos != 0) {
+				_phases[phase.ordinal()].record(nanos);
+			}
+		}
+	}
+
+	/**
+	 * Wall clock time of whole blurs, in nanoseconds
+	 */
+	public LatencyHistogram getTotal() {
+		return _total;
+	}
+
+	/**
+	 * Time spent waiting for executor threads, in nanoseconds
+	 */
+	public LatencyHistogram getQueueWait() {
+		return _queueWait;
+	}
+
+	/**
+	 * Pixel bytes read and written per blur. The histogram holds bytes, not
+	 * nanoseconds, so its percentiles, mean and maximum are byte counts.
+	 */
+	public LatencyHistogram getBytesTouched() {
+		return _bytes;
+	}
+
+	/**
+	 * How late blurs which missed their deadline finished, in nanoseconds.
+	 * The count is the number of missed deadlines.
+	 */
+	public LatencyHistogram getDeadlinesMissed() {
+		return _late;
+	}
+
+	/**
+	 * Time spent in one phase, in nanoseconds. Only blurs which went through
+	 * the phase are counted.
+	 */
+	public LatencyHistogram getPhase(BlurPhase phase) {
+		return _phases[phase.ordinal()];
+	}
+
+	public void reset() {
+		_total.reset();
+		_queueWait.reset();
+		_bytes.reset();
+		_late.reset();
+		for (LatencyHistogram histogram : _phases) {
+			histogram.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("total: ").append(_total);
+		builder.append("\nqueue: ").append(_queueWait);
+		if (_late.getCount() != 0) {
+			builder.append("\nlate: ").append(_late);
+		}
+		for (BlurPhase phase : PHASES) {
+			LatencyHistogram histogram = _phases[phase.ordinal()];
+			if (histogram.getCount() != 0) {
+				builder.append('\n').append(phase.name().toLowerCase()).append(": ").append(histogram);
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,13 @@
+package com.enrique.stackblur;
+
+/**
+ * Receives the timings of every blur.
+ * @see StackBlurManager#setMetricsListener(BlurMetricsListener)
+ */
+public interface BlurMetricsListener {
+	/**
+	 * Called on the thread which requested the blur, once it has finished.
+	 * Keep this cheap, it is on the caller's critical path.
+	 */
+	void onBlurFinished(BlurStats stats);
+}
@@ -0,0 +1,90 @@
+package com.enrique.stackblur;
+
+/**
+ * The optional parts of a blur, passed through to the {@link BlurProcess}
+ */
+final class BlurParams {
+	/**
+	 * Color operation applied as the result is written, or null
+	 */
+	ColorTransform transform;
+
+	/**
+	 * Receives the timings of each phase, or null when metrics are disabled
+	 */
+	BlurStats stats;
+
+	/**
+	 * Called between chunks of lines, or null
+	 */
+	BlurCheckpoint checkpoint;
+
+	/**
+	 * Orders the pieces of this blur in the executor queue
+	 */
+	BlurPriority priority = BlurPriority.NORMAL;
+
+	/**
+	 * System.nanoTime() by which the blur should be finished, or Long.MAX_VALUE for none.
+	 * Earlier deadlines run first among blurs of the same priority.
+	 */
+	long deadlineNanos = Long.MAX_VALUE;
+
+	/**
+	 * Blur the colors in linear light rather than on the sRGB values
+	 */
+	boolean linear;
+
+	/**
+	 * Radius of the vertical pass, or negative for the radius passed to the blur, which
+	 * is always the radius of the horizontal pass. A pass with a radius of 0 is skipped.
+	 */
+	float verticalRadius = -1;
+
+	/**
+	 * How the blur was fit into the memory budget, set once it has finished
+	 */
+	BlurStrategy strategy;
+
+	BlurParams(ColorTransform transform, BlurStats stats, BlurCheckpoint checkpoint) {
+		this.transform = transform;
+		this.stats = stats;
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Set the priority. Between chunks of lines, a background blur also runs the
+	 * queued pieces of any urgent blur before carrying on.
+	 */
+	void setPriority(BlurPriority priority) {
+		this.priority = priority;
+		if (priority == BlurPriority.BACKGROUND) {
+			final BlurCheckpoint next = checkpoint;
+			checkpoint = new BlurCheckpoint() {
+				@Override
+				public void check() {
+					BlurExecutor.yieldToUrgent();
+					if (next != null) {
+						next.check();
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * The radius of the vertical pass of a blur with the given radius
+	 */
+	float verticalRadius(float radius) {
+		return (verticalRadius < 0) ? radius : verticalRadius;
+	}
+
+	/**
+	 * Run the checkpoint, if there is one
+	 */
+	void check() {
+		if (checkpoint != null) {
+			checkpoint.check();
+		}
+	}
+}
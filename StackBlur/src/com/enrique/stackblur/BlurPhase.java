@@ -0,0 +1,24 @@
+package com.enrique.stackblur;
+
+/**
+ * The stages of a blur reported in {@link BlurStats}.
+ * Not every backend goes through every phase.
+ */
+public enum BlurPhase {
+	/** Allocating the result bitmap */
+	ALLOCATE,
+	/** Copying or scaling pixels with a Canvas */
+	COPY,
+	/** The horizontal pass, including reading from the source bitmap */
+	HORIZONTAL,
+	/** The vertical pass, including any color transform */
+	VERTICAL,
+	/** Locking and unlocking bitmap pixels in native code, summed over all threads */
+	LOCK_PIXELS,
+	/** Creating the RenderScript script and allocations */
+	RS_SETUP,
+	/** Running the RenderScript blur and copying the result back */
+	RS_BLUR,
+	/** Decoding a compressed image before blurring it */
+	DECODE,
+}
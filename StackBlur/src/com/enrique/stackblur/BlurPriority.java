@@ -0,0 +1,22 @@
+package com.enrique.stackblur;
+
+/**
+ * How urgently a blur is needed, in the order the executor runs them
+ * @see StackBlurManager#setPriority(BlurPriority)
+ */
+public enum BlurPriority {
+	/**
+	 * Needed for the next frame, such as a dialog backdrop. Background blurs
+	 * run its queued pieces before carrying on with their own.
+	 */
+	URGENT,
+	/**
+	 * The default
+	 */
+	NORMAL,
+	/**
+	 * Work nobody is waiting for, such as generating thumbnails. Gives way to urgent
+	 * blurs between chunks of lines.
+	 */
+	BACKGROUND,
+}
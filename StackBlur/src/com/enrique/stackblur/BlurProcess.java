@@ -11,7 +11,18 @@ interface BlurProcess {
 	 * @param src    the bitmap to be blurred
 	 * @param dst    the bitmap in which the blurred image should be stored
 	 * @param radius the radius in pixels to blur the image
+	 * @param params the color transform, stats and checkpoint of this blur
 	 * @throws IllegalArgumentException if dst is not mutable or radius is negative
+	 * @throws java.util.concurrent.CancellationException if the checkpoint cancelled the blur;
+	 *         dst is left partly blurred
 	 */
-	void blur(Bitmap src, Bitmap dst, float radius);
+	void blur(Bitmap src, Bitmap dst, float radius, BlurParams params);
+
+	/**
+	 * Estimate the memory a blur needs on top of src and dst: intermediate bitmaps,
+	 * allocations and the scratch buffers of every thread.
+	 *
+	 * @return the estimate in bytes
+	 */
+	long estimateScratchBytes(int srcWidth, int srcHeight, int dstWidth, int dstHeight, float radius);
 }
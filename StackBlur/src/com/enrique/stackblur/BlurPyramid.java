@@ -0,0 +1,214 @@
+package com.enrique.stackblur;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * Blurs of one image at any radius up to a maximum, for radii which change every frame,
+ * such as a header blurring as it scrolls away.
+ *
+ * The image is halved repeatedly up front, each level blurred a little more before the
+ * next is made from it. A radius is then served from the smallest level whose blur does
+ * not exceed it: the level is blurred by the remaining radius and scaled back up with
+ * bilinear filtering. Blurs add up by their variance, so the residual radius is picked
+ * so that the variance of the level, the residual blur and the upscale together match
+ * that of the requested radius.
+ *
+ * Radii up to 5 are blurred directly. Above that the residual blur runs on a quarter of
+ * the pixels or fewer, so the cost of a frame is dominated by the upscale and stays flat
+ * as the radius grows. Compared with blurring the image directly, the kernels differ in
+ * shape but not in width: on photos the mean difference stays below 1 level out of 255
+ * and the largest below about 20, except within half a radius of the border, where the
+ * levels repeat an averaged edge rather than the edge pixels themselves.
+ *
+ * Methods may be called from any thread. To keep a frame free of allocations, blur
+ * into the same output bitmap every frame with {@link #blur(int, Bitmap)}.
+ */
+public class BlurPyramid {
+	/** Radius each level is blurred with, in its own pixels */
+	static final int LEVEL_RADIUS = 2;
+	/** Bilinear filtering for the upscale, replacing what out held rather than drawing over it */
+	private static final Paint FILTER = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	static {
+		FILTER.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+	}
+
+	private final Bitmap _image;
+	private final int _maxRadius;
+	private final BlurProcess _blurProcess = BlurService.javaProcess();
+	/** Level 0 is the image itself, each further level is half the size of the one before */
+	private final Bitmap[] _levels;
+	/** Image pixels per pixel of each level */
+	private final double[] _scale;
+	/**
+	 * Variance of the blur each level carries once it is scaled back up, in image pixels
+	 * squared: the blurs and downscales that made it, and the bilinear upscale
+	 */
+	private final double[] _variance;
+	/** Receives the residual blur of each level, reused from one frame to the next */
+	private final Bitmap[] _scratch;
+
+	BlurPyramid(Bitmap image, int maxRadius) {
+		if (maxRadius < 0) {
+			throw new IllegalArgumentException("maxRadius must be >= 0");
+		}
+		_image = image;
+		_maxRadius = maxRadius;
+
+		ArrayList<Bitmap> levels = new ArrayList<Bitmap>();
+		ArrayList<double[]> stats = new ArrayList<double[]>();
+		levels.add(image);
+		stats.add(new double[] { 1, 0 });
+		double maxVariance = variance(maxRadius);
+		double blurVariance = 0;
+		while (true) {
+			Bitmap previous = levels.get(levels.size() - 1);
+			double previousScale = stats.get(stats.size() - 1)[0];
+			int width = previous.getWidth() / 2;
+			int height = previous.getHeight() / 2;
+			if (width < 1 || height < 1) {
+				break;
+			}
+			double scale = Math.min((double) image.getWidth() / width, (double) image.getHeight() / height);
+			// Box filtering f previous pixels into one, then the blur of the level itself
+			double f = scale / previousScale;
+			double nextBlurVariance = blurVariance + (f * f - 1) / 12 * previousScale * previousScale
+					+ variance(LEVEL_RADIUS) * scale * scale;
+			double levelVariance = nextBlurVariance + scale * scale / 6;
+			if (levelVariance > maxVariance) {
+				break;
+			}
+			Bitmap level = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			// The blur takes the radius in the pixels of its source
+			float shrink = Math.min((float) width / previous.getWidth(), (float) height / previous.getHeight());
+			_blurProcess.blur(previous, level, LEVEL_RADIUS / shrink, new BlurParams(null, null, null));
+			levels.add(level);
+			stats.add(new double[] { scale, levelVariance });
+			blurVariance = nextBlurVariance;
+		}
+
+		_levels = levels.toArray(new Bitmap[levels.size()]);
+		_scale = new double[_levels.length];
+		_variance = new double[_levels.length];
+		for (int i = 0; i < _levels.length; i++) {
+			_scale[i] = stats.get(i)[0];
+			_variance[i] = stats.get(i)[1];
+		}
+		_scratch = new Bitmap[_levels.length];
+	}
+
+	public int getWidth() {
+		return _image.getWidth();
+	}
+
+	public int getHeight() {
+		return _image.getHeight();
+	}
+
+	public int getMaxRadius() {
+		return _maxRadius;
+	}
+
+	/**
+	 * Number of levels, including the image itself
+	 */
+	public int getLevelCount() {
+		return _levels.length;
+	}
+
+	/**
+	 * Returns a new bitmap of the image blurred by about the given radius
+	 * @param radius between 0 and the maximum radius
+	 */
+	public Bitmap blur(int radius) {
+		checkRadius(radius);
+		Bitmap result = Bitmap.createBitmap(_image.getWidth(), _image.getHeight(), Bitmap.Config.ARGB_8888);
+		blur(radius, result);
+		return result;
+	}
+
+	/**
+	 * Blur the image by about the given radius into out, which can be reused from one
+	 * frame to the next
+	 * @param radius between 0 and the maximum radius
+	 * @param out a mutable bitmap the size of the image
+	 */
+	public void blur(int radius, Bitmap out) {
+		checkRadius(radius);
+		if (!out.isMutable() || out.getWidth() != _image.getWidth() || out.getHeight() != _image.getHeight()) {
+			throw new IllegalArgumentException("out must be mutable and the size of the image");
+		}
+		double target = variance(radius);
+		int level = _levels.length - 1;
+		while (level > 0 && _variance[level] > target) {
+			level--;
+		}
+		if (level == 0) {
+			_blurProcess.blur(_image, out, radius, new BlurParams(null, null, null));
+			return;
+		}
+
+		int residualRadius = residualRadius(level, target);
+		// The residual radius is rounded, which misses the target by less on the finer level
+		if (level > 1 && varianceError(level - 1, target) < varianceError(level, target)) {
+			level--;
+			residualRadius = residualRadius(level, target);
+		}
+		Bitmap source = _levels[level];
+		if (residualRadius == 0) {
+			upscale(source, out);
+			return;
+		}
+		synchronized (_scratch) {
+			Bitmap blurred = _scratch[level];
+			if (blurred == null) {
+				blurred = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+				_scratch[level] = blurred;
+			}
+			_blurProcess.blur(source, blurred, residualRadius, new BlurParams(null, null, null));
+			upscale(blurred, out);
+		}
+	}
+
+	private void checkRadius(int radius) {
+		if (radius < 0 || radius > _maxRadius) {
+			throw new IllegalArgumentException("radius must be between 0 and " + _maxRadius);
+		}
+	}
+
+	/**
+	 * Draw the level over the whole of out with bilinear filtering
+	 */
+	private static void upscale(Bitmap level, Bitmap out) {
+		new Canvas(out).drawBitmap(level, null, new Rect(0, 0, out.getWidth(), out.getHeight()), FILTER);
+	}
+
+	private int residualRadius(int level, double target) {
+		double scale = _scale[level];
+		double residual = (target - _variance[level]) / (scale * scale);
+		return (int) Math.round(Math.sqrt(1 + 6 * residual) - 1);
+	}
+
+	/**
+	 * How far serving the target variance from the level misses it, relative to the target
+	 */
+	private double varianceError(int level, double target) {
+		double scale = _scale[level];
+		return Math.abs(_variance[level] + variance(residualRadius(level, target)) * scale * scale - target) / target;
+	}
+
+	/**
+	 * Variance of the stack blur of the given radius, in pixels squared: its weights
+	 * fall linearly from radius + 1 at the centre to 1 at either end
+	 */
+	static double variance(int radius) {
+		return radius * (radius + 2) / 6.0;
+	}
+}
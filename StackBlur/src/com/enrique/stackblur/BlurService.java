@@ -0,0 +1,558 @@
+package com.enrique.stackblur;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v8.renderscript.RSRuntimeException;
+import android.util.Log;
+
+
+/**
+ * Blurs bitmaps for any number of threads at once. Unlike {@link StackBlurManager}, which
+ * holds one image and its latest result, a service keeps no state between blurs: every
+ * call gets the image and returns a new bitmap, and the settings are fixed when the service
+ * is built. One service can be shared by all the workers of an image loader.
+ * <pre>
+ *   BlurService blurService = new BlurService.Builder()
+ *       .setRenderScript(context)
+ *       .setPriority(BlurPriority.BACKGROUND)
+ *       .build();
+ *   Bitmap blurred = blurService.blurRenderScript(image, 20, null);
+ * </pre>
+ *
+ * The backends are created once per process and shared by all services and managers.
+ */
+public final class BlurService {
+	/** Size of the image blurred to prewarm, with enough rows for every pool thread */
+	private static final int PREWARM_SIZE = 64;
+
+	/** The RenderScript backend, or the native one once RenderScript has failed to start */
+	private static BlurProcess renderScriptProcess;
+
+	private final BlurPriority _priority;
+	private final long _deadlineMillis;
+	private final boolean _linearLight;
+	private final long _memoryBudget;
+	private final BlurProcess _renderScript;
+
+	private BlurService(Builder builder) {
+		_priority = builder.priority;
+		_deadlineMillis = builder.deadlineMillis;
+		_linearLight = builder.linearLight;
+		_memoryBudget = builder.memoryBudget;
+		_renderScript = (builder.context != null) ? renderScriptProcess(builder.context) : null;
+	}
+
+	/**
+	 * Blur a copy of the image with the Java code
+	 * @param transform the color operation to apply, or null
+	 */
+	public Bitmap blur(Bitmap image, int radius, ColorTransform transform) {
+		return blur(image, JavaProcess.INSTANCE, radius, params(transform), _memoryBudget);
+	}
+
+	/**
+	 * Blur a copy of the image with the Java code on a fractional radius
+	 * @param transform the color operation to apply, or null
+	 * @see StackBlurManager#process(float)
+	 */
+	public Bitmap blur(Bitmap image, float radius, ColorTransform transform) {
+		return blur(image, JavaProcess.INSTANCE, radius, params(transform), _memoryBudget);
+	}
+
+	/**
+	 * Blur a copy of the image with the Java code, by a different radius along each axis
+	 * @param horizontalRadius the radius of the blur along the rows, 0 for none
+	 * @param verticalRadius the radius of the blur along the columns, 0 for none
+	 * @param transform the color operation to apply, or null
+	 * @see StackBlurManager#process(int, int, ColorTransform)
+	 */
+	public Bitmap blur(Bitmap image, int horizontalRadius, int verticalRadius, ColorTransform transform) {
+		return blur(image, JavaProcess.INSTANCE, horizontalRadius, params(verticalRadius, transform), _memoryBudget);
+	}
+
+	/**
+	 * Blur a copy of the image with the native library
+	 * @param transform the color operation to apply, or null
+	 */
+	public Bitmap blurNatively(Bitmap image, int radius, ColorTransform transform) {
+		return blur(image, NativeProcess.INSTANCE, radius, params(transform), _memoryBudget);
+	}
+
+	/**
+	 * Blur a copy of the image with the native library on a fractional radius
+	 * @see #blur(Bitmap, float, ColorTransform)
+	 */
+	public Bitmap blurNatively(Bitmap image, float radius, ColorTransform transform) {
+		return blur(image, NativeProcess.INSTANCE, radius, params(transform), _memoryBudget);
+	}
+
+	/**
+	 * Blur a copy of the image with the native library, by a different radius along each axis
+	 * @see #blur(Bitmap, int, int, ColorTransform)
+	 */
+	public Bitmap blurNatively(Bitmap image, int horizontalRadius, int verticalRadius, ColorTransform transform) {
+		return blur(image, NativeProcess.INSTANCE, horizontalRadius, params(verticalRadius, transform), _memoryBudget);
+	}
+
+	/**
+	 * Blur copies of the image with the Java code, one for each radius, reading the
+	 * image only once
+	 * @param transform the color operation to apply to each, or null
+	 * @see StackBlurManager#processRadii(int[])
+	 */
+	public Bitmap[] blur(Bitmap image, int[] radii, ColorTransform transform) {
+		return blur(image, JavaProcess.INSTANCE, radii, params(transform), _memoryBudget);
+	}
+
+	/**
+	 * Blur copies of the image with the native library, one for each radius, reading
+	 * the image only once
+	 * @see #blur(Bitmap, int[], ColorTransform)
+	 */
+	public Bitmap[] blurNatively(Bitmap image, int[] radii, ColorTransform transform) {
+		return blur(image, NativeProcess.INSTANCE, radii, params(transform), _memoryBudget);
+	}
+
+	/**
+	 * Blur a copy of the image with RenderScript, or with the native library where
+	 * RenderScript is not available
+	 * @param transform the color operation to apply, or null
+	 * @throws IllegalStateException if the service was built without a context
+	 */
+	public Bitmap blurRenderScript(Bitmap image, float radius, ColorTransform transform) {
+		if (_renderScript == null) {
+			throw new IllegalStateException("RenderScript needs a context, see Builder.setRenderScript");
+		}
+		return blur(image, _renderScript, radius, params(transform), _memoryBudget);
+	}
+
+	private BlurParams params(int verticalRadius, ColorTransform transform) {
+		if (verticalRadius < 0) {
+			throw new IllegalArgumentException("verticalRadius must be >= 0");
+		}
+		BlurParams params = params(transform);
+		params.verticalRadius = verticalRadius;
+		return params;
+	}
+
+	private BlurParams params(ColorTransform transform) {
+		BlurParams params = new BlurParams(transform, null, null);
+		params.setPriority(_priority);
+		params.linear = _linearLight;
+		if (_deadlineMillis > 0) {
+			params.deadlineNanos = System.nanoTime() + _deadlineMillis * 1000000L;
+		}
+		return params;
+	}
+
+	/**
+	 * The shared RenderScript backend. The RenderScript support library doesn't have
+	 * .so files for ARMv6, so if the context cannot be created, the native backend is
+	 * returned from then on.
+	 */
+	static synchronized BlurProcess renderScriptProcess(Context context) {
+		if (renderScriptProcess == null) {
+			try {
+				renderScriptProcess = new RSBlurProcess(context);
+			} catch (RSRuntimeException e) {
+				if (BuildConfig.DEBUG) {
+					Log.i("BlurService", "Falling back to Native Blur", e);
+				}
+				renderScriptProcess = NativeProcess.INSTANCE;
+			}
+		}
+		return renderScriptProcess;
+	}
+
+	/**
+	 * The shared Java backend
+	 */
+	static JavaBlurProcess javaProcess() {
+		return JavaProcess.INSTANCE;
+	}
+
+	/**
+	 * The shared native backend; the library is only loaded when it is first used
+	 */
+	static NativeBlurProcess nativeProcess() {
+		return NativeProcess.INSTANCE;
+	}
+
+	/**
+	 * Start the pool and the backends, and run a small blur with each of them
+	 * @param context to start RenderScript, or null to skip it
+	 * @see StackBlurManager#prewarm(Context)
+	 */
+	static PrewarmReport prewarm(Context context) {
+		PrewarmReport report = new PrewarmReport();
+		long start = System.nanoTime();
+		long time = start;
+
+		BlurExecutor.prestart();
+		time = step(report, PrewarmStep.EXECUTOR, time, true);
+
+		Bitmap src = Bitmap.createBitmap(PREWARM_SIZE, PREWARM_SIZE, Bitmap.Config.ARGB_8888);
+		Bitmap dst = Bitmap.createBitmap(PREWARM_SIZE, PREWARM_SIZE, Bitmap.Config.ARGB_8888);
+		try {
+			// One radius for each line kernel, then the linear light tables
+			prewarmBlur(JavaProcess.INSTANCE, src, dst, SmallRadiusBlur.MAX_RADIUS, false);
+			prewarmBlur(JavaProcess.INSTANCE, src, dst, PackedStackBlur.MAX_RADIUS_4_LANES, false);
+			prewarmBlur(JavaProcess.INSTANCE, src, dst, PackedStackBlur.MAX_RADIUS_4_LANES + 0.5f, false);
+			prewarmBlur(JavaProcess.INSTANCE, src, dst, SmallRadiusBlur.MAX_RADIUS, true);
+			time = step(report, PrewarmStep.JAVA_BLUR, time, true);
+
+			NativeBlurProcess nativeProcess = null;
+			try {
+				nativeProcess = NativeProcess.INSTANCE;
+			} catch (LinkageError e) {
+				if (BuildConfig.DEBUG) {
+					Log.i("BlurService", "Native library not available", e);
+				}
+			}
+			time = step(report, PrewarmStep.NATIVE_LIBRARY, time, nativeProcess != null);
+			if (nativeProcess != null) {
+				prewarmBlur(nativeProcess, src, dst, PackedStackBlur.MAX_RADIUS_4_LANES, false);
+				time = step(report, PrewarmStep.NATIVE_BLUR, time, true);
+			}
+
+			if (context != null) {
+				BlurProcess renderScript = renderScriptProcess(context);
+				boolean started = renderScript instanceof RSBlurProcess;
+				time = step(report, PrewarmStep.RENDERSCRIPT, time, started);
+				if (started) {
+					boolean succeeded = true;
+					try {
+						prewarmBlur(renderScript, src, dst, PackedStackBlur.MAX_RADIUS_4_LANES, false);
+					} catch (RSRuntimeException e) {
+						if (BuildConfig.DEBUG) {
+							Log.i("BlurService", "RenderScript blur failed", e);
+						}
+						succeeded = false;
+					}
+					step(report, PrewarmStep.RENDERSCRIPT_BLUR, time, succeeded);
+				}
+			}
+		} finally {
+			src.recycle();
+			dst.recycle();
+		}
+		report.totalNanos = System.nanoTime() - start;
+		return report;
+	}
+
+	/**
+	 * Blur in the background, so a blur for the UI started meanwhile goes first
+	 */
+	private static void prewarmBlur(BlurProcess blurProcess, Bitmap src, Bitmap dst, float radius, boolean linear) {
+		BlurParams params = new BlurParams(null, null, null);
+		params.setPriority(BlurPriority.BACKGROUND);
+		params.linear = linear;
+		blurProcess.blur(src, dst, radius, params);
+	}
+
+	/**
+	 * Records the time since start for the step, and returns the current time
+	 */
+	private static long step(PrewarmReport report, PrewarmStep step, long start, boolean succeeded) {
+		long now = System.nanoTime();
+		report.addStep(step, now - start, succeeded);
+		return now;
+	}
+
+	/**
+	 * Blur the image into a new bitmap within the memory budget, and record in
+	 * params.strategy how it was made to fit
+	 */
+	static Bitmap blur(Bitmap image, BlurProcess blurProcess, float radius, BlurParams params, long memoryBudget) {
+		boolean urgent = params.priority == BlurPriority.URGENT;
+		if (urgent) {
+			BlurExecutor.beginUrgent();
+		}
+		try {
+			return blurWithinBudget(image, blurProcess, radius, params, memoryBudget);
+		} finally {
+			if (urgent) {
+				BlurExecutor.endUrgent();
+			}
+		}
+	}
+
+	private static Bitmap blurWithinBudget(Bitmap image, BlurProcess blurProcess, float radius, BlurParams params,
+			long memoryBudget) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BlurStrategy strategy = BlurStrategy.FULL;
+		// The pass with the larger radius needs the most scratch memory
+		float maxRadius = Math.max(radius, params.verticalRadius(radius));
+		if (peakBytes(image, blurProcess, width, height, maxRadius) > memoryBudget) {
+			if (blurProcess instanceof RSBlurProcess) {
+				blurProcess = NativeProcess.INSTANCE;
+				strategy = BlurStrategy.STREAMING;
+			}
+			while (peakBytes(image, blurProcess, width, height, maxRadius) > memoryBudget && (width > 1 || height > 1)) {
+				width = Math.max(1, width / 2);
+				height = Math.max(1, height / 2);
+				strategy = BlurStrategy.DOWNSCALED;
+			}
+		}
+
+		while (true) {
+			try {
+				Bitmap result = blur(image, blurProcess, width, height, radius, params, strategy);
+				params.strategy = strategy;
+				return result;
+			} catch (OutOfMemoryError e) {
+				if (width == 1 && height == 1) {
+					throw e;
+				}
+				if (BuildConfig.DEBUG) {
+					Log.i("BlurService", "Out of memory blurring at " + width + "x" + height + ", retrying at half size", e);
+				}
+				width = Math.max(1, width / 2);
+				height = Math.max(1, height / 2);
+				strategy = BlurStrategy.DOWNSCALED;
+			}
+		}
+	}
+
+	/**
+	 * Blur the image into a new bitmap for each radius in one sweep, all of the
+	 * same size within the memory budget, and record in params.strategy how they
+	 * were made to fit
+	 */
+	static Bitmap[] blur(Bitmap image, MultiRadiusBlurProcess blurProcess, int[] radii, BlurParams params,
+			long memoryBudget) {
+		if (radii.length == 0) {
+			throw new IllegalArgumentException("radii must not be empty");
+		}
+		float[] floatRadii = new float[radii.length];
+		for (int k = 0; k < radii.length; k++) {
+			if (radii[k] < 0) {
+				throw new IllegalArgumentException("radius must be >= 0");
+			}
+			floatRadii[k] = radii[k];
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BlurStrategy strategy = BlurStrategy.FULL;
+		while (peakBytes(image, blurProcess, width, height, floatRadii) > memoryBudget && (width > 1 || height > 1)) {
+			width = Math.max(1, width / 2);
+			height = Math.max(1, height / 2);
+			strategy = BlurStrategy.DOWNSCALED;
+		}
+
+		boolean urgent = params.priority == BlurPriority.URGENT;
+		if (urgent) {
+			BlurExecutor.beginUrgent();
+		}
+		try {
+			while (true) {
+				try {
+					Bitmap[] results = blur(image, blurProcess, width, height, floatRadii, params, strategy);
+					params.strategy = strategy;
+					return results;
+				} catch (OutOfMemoryError e) {
+					if (width == 1 && height == 1) {
+						throw e;
+					}
+					if (BuildConfig.DEBUG) {
+						Log.i("BlurService", "Out of memory blurring " + radii.length + " radii at " + width + "x"
+								+ height + ", retrying at half size", e);
+					}
+					width = Math.max(1, width / 2);
+					height = Math.max(1, height / 2);
+					strategy = BlurStrategy.DOWNSCALED;
+				}
+			}
+		} finally {
+			if (urgent) {
+				BlurExecutor.endUrgent();
+			}
+		}
+	}
+
+	/**
+	 * Blur the image into a new bitmap of the given size for each radius
+	 */
+	private static Bitmap[] blur(Bitmap image, MultiRadiusBlurProcess blurProcess, int width, int height,
+			float[] radii, BlurParams params, BlurStrategy strategy) {
+		BlurMetricsListener listener = StackBlurManager.metricsListener;
+		BlurStats stats = null;
+		long start = 0;
+		if (listener != null) {
+			float maxRadius = 0;
+			for (float radius : radii) {
+				maxRadius = Math.max(maxRadius, radius);
+			}
+			stats = new BlurStats(width, height, maxRadius);
+			stats.strategy = strategy;
+			stats.priority = params.priority;
+			start = System.nanoTime();
+		}
+		params.stats = stats;
+
+		Bitmap[] results = new Bitmap[radii.length];
+		try {
+			for (int k = 0; k < radii.length; k++) {
+				results[k] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			}
+			if (stats != null) {
+				stats.addPhase(BlurPhase.ALLOCATE, System.nanoTime() - start);
+			}
+			blurProcess.blur(image, results, radii, params);
+		} catch (RuntimeException e) {
+			recycle(results);
+			throw e;
+		} catch (OutOfMemoryError e) {
+			recycle(results);
+			throw e;
+		}
+
+		if (stats != null) {
+			long end = System.nanoTime();
+			stats.totalNanos = end - start;
+			if (params.deadlineNanos != Long.MAX_VALUE && end - params.deadlineNanos > 0) {
+				stats.lateNanos = end - params.deadlineNanos;
+			}
+			listener.onBlurFinished(stats);
+		}
+		return results;
+	}
+
+	private static void recycle(Bitmap[] bitmaps) {
+		for (Bitmap bitmap : bitmaps) {
+			if (bitmap != null) {
+				bitmap.recycle();
+			}
+		}
+	}
+
+	/**
+	 * Blur the image into a new bitmap of the given size
+	 */
+	static Bitmap blur(Bitmap image, BlurProcess blurProcess, int width, int height, float radius, BlurParams params,
+			BlurStrategy strategy) {
+		BlurMetricsListener listener = StackBlurManager.metricsListener;
+		BlurStats stats = null;
+		long start = 0;
+		if (listener != null) {
+			stats = new BlurStats(width, height, radius);
+			stats.strategy = strategy;
+			stats.priority = params.priority;
+			start = System.nanoTime();
+		}
+		params.stats = stats;
+
+		Bitmap result = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		if (stats != null) {
+			stats.addPhase(BlurPhase.ALLOCATE, System.nanoTime() - start);
+		}
+		try {
+			blurProcess.blur(image, result, radius, params);
+		} catch (RuntimeException e) {
+			result.recycle();
+			throw e;
+		} catch (OutOfMemoryError e) {
+			result.recycle();
+			throw e;
+		}
+
+		if (stats != null) {
+			long end = System.nanoTime();
+			stats.totalNanos = end - start;
+			if (params.deadlineNanos != Long.MAX_VALUE && end - params.deadlineNanos > 0) {
+				stats.lateNanos = end - params.deadlineNanos;
+			}
+			listener.onBlurFinished(stats);
+		}
+		return result;
+	}
+
+	private static long peakBytes(Bitmap image, BlurProcess blurProcess, int width, int height, float radius) {
+		return 4L * width * height
+				+ blurProcess.estimateScratchBytes(image.getWidth(), image.getHeight(), width, height, radius);
+	}
+
+	private static long peakBytes(Bitmap image, BlurProcess blurProcess, int width, int height, float[] radii) {
+		long bytes = 0;
+		for (float radius : radii) {
+			bytes += peakBytes(image, blurProcess, width, height, radius);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Holds the Java backend, created the first time it is used
+	 */
+	private static final class JavaProcess {
+		static final JavaBlurProcess INSTANCE = new JavaBlurProcess();
+	}
+
+	/**
+	 * Holds the native backend, so the library is not loaded until it is needed
+	 */
+	private static final class NativeProcess {
+		static final NativeBlurProcess INSTANCE = new NativeBlurProcess();
+	}
+
+	public static final class Builder {
+		private BlurPriority priority = BlurPriority.NORMAL;
+		private long deadlineMillis;
+		private boolean linearLight;
+		private long memoryBudget = Long.MAX_VALUE;
+		private Context context;
+
+		/**
+		 * @see StackBlurManager#setPriority(BlurPriority)
+		 */
+		public Builder setPriority(BlurPriority priority) {
+			if (priority == null) {
+				throw new IllegalArgumentException("priority must not be null");
+			}
+			this.priority = priority;
+			return this;
+		}
+
+		/**
+		 * @see StackBlurManager#setDeadline(long)
+		 */
+		public Builder setDeadline(long millis) {
+			if (millis < 0) {
+				throw new IllegalArgumentException("millis must be >= 0");
+			}
+			this.deadlineMillis = millis;
+			return this;
+		}
+
+		/**
+		 * @see StackBlurManager#setLinearLight(boolean)
+		 */
+		public Builder setLinearLight(boolean linearLight) {
+			this.linearLight = linearLight;
+			return this;
+		}
+
+		/**
+		 * @see StackBlurManager#setMemoryBudget(long)
+		 */
+		public Builder setMemoryBudget(long bytes) {
+			if (bytes <= 0) {
+				throw new IllegalArgumentException("bytes must be > 0");
+			}
+			this.memoryBudget = bytes;
+			return this;
+		}
+
+		/**
+		 * Start RenderScript when the service is built, for {@link BlurService#blurRenderScript}
+		 */
+		public Builder setRenderScript(Context context) {
+			this.context = context;
+			return this;
+		}
+
+		public BlurService build() {
+			return new BlurService(this);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.enrique.stackblur;
+
+/**
+ * Timings and sizes of a single blur, passed to a {@link BlurMetricsListener}.
+ * Only collected while a listener is installed.
+ */
+public final class BlurStats {
+	private static final BlurPhase[] PHASES = BlurPhase.values();
+
+	String backend;
+	int width;
+	int height;
+	float radius;
+	int threads = 1;
+	BlurStrategy strategy = BlurStrategy.FULL;
+	BlurPriority priority = BlurPriority.NORMAL;
+	long lateNanos;
+	long queueWaitNanos;
+	long bytesTouched;
+	long totalNanos;
+	private final long[] phaseNanos = new long[PHASES.length];
+
+	BlurStats(int width, int height, float radius) {
+		this.width = width;
+		this.height = height;
+		this.radius = radius;
+	}
+
+	void addPhase(BlurPhase phase, long nanos) {
+		phaseNanos[phase.ordinal()] += nanos;
+	}
+
+	/**
+	 * Name of the backend which did the work: "Java", "Native" or "RenderScript"
+	 */
+	public String getBackend() {
+		return backend;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+
+	/**
+	 * How the blur was fit into the memory budget
+	 */
+	public BlurStrategy getStrategy() {
+		return strategy;
+	}
+
+	public BlurPriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * How long after its deadline the blur finished, or 0 if it was on time or had no deadline
+	 * @see StackBlurManager#setDeadline(long)
+	 */
+	public long getLateNanos() {
+		return lateNanos;
+	}
+
+	/**
+	 * Number of threads the work was split across
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Longest time any part of the blur waited in the executor queue before it started
+	 */
+	public long getQueueWaitNanos() {
+		return queueWaitNanos;
+	}
+
+	/**
+	 * Time spent in the given phase, or 0 if the backend does not have it
+	 */
+	public long getPhaseNanos(BlurPhase phase) {
+		return phaseNanos[phase.ordinal()];
+	}
+
+	/**
+	 * Wall clock time of the whole call
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Estimate of the pixel bytes read and written
+	 */
+	public long getBytesTouched() {
+		return bytesTouched;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(backend).append(' ').append(width).append('x').append(height)
+				.append(" r=").append(radius)
+				.append(" threads=").append(threads)
+				.append(' ').append(strategy.name().toLowerCase())
+				.append(" total=").append(totalNanos / 1000).append("us")
+				.append(" queue=").append(queueWaitNanos / 1000).append("us");
+		if (priority != BlurPriority.NORMAL) {
+			builder.append(' ').append(priority.name().toLowerCase());
+		}
+		if (lateNanos != 0) {
+			builder.append(" late=").append(lateNanos / 1000).append("us");
+		}
+		for (BlurPhase phase : PHASES) {
+			long nanos = phaseNanos[phase.ordinal()];
+			if (nanos != 0) {
+				builder.append(' ').append(phase.name().toLowerCase()).append('=').append(nanos / 1000).append("us");
+			}
+		}
+		builder.append(" bytes=").append(bytesTouched);
+		return builder.toString();
+	}
+}
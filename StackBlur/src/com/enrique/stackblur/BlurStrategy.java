@@ -0,0 +1,17 @@
+package com.enrique.stackblur;
+
+/**
+ * How {@link StackBlurManager} fit a blur into its memory budget.
+ * @see StackBlurManager#setMemoryBudget(long)
+ */
+public enum BlurStrategy {
+	/** Blurred at full resolution with the requested backend */
+	FULL,
+	/**
+	 * RenderScript's intermediate bitmaps and allocations did not fit, so the image
+	 * was blurred line by line in native code instead, at full resolution
+	 */
+	STREAMING,
+	/** Blurred at a reduced resolution; the result is smaller than the image */
+	DOWNSCALED,
+}
@@ -0,0 +1,15 @@
+package com.enrique.stackblur;
+
+/**
+ * A {@link BlurProcess} which can also blur pixels in a ByteBuffer directly
+ */
+interface BufferBlurProcess extends BlurProcess {
+	/**
+	 * Blur src into dst, resampling if the sizes differ, like
+	 * {@link BlurProcess#blur(android.graphics.Bitmap, android.graphics.Bitmap, float, BlurParams)}.
+	 * It is valid to pass the same buffer to src and dst.
+	 *
+	 * @throws IllegalArgumentException if dst is read only or radius is negative
+	 */
+	void blur(PixelBuffer src, PixelBuffer dst, float radius, BlurParams params);
+}
@@ -0,0 +1,64 @@
+package com.enrique.stackblur;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link PixelBuffer} as a {@link PixelSurface}, read and written in place
+ * with absolute gets and puts, so it can be shared between threads.
+ */
+final class BufferSurface implements PixelSurface {
+	private final ByteBuffer _buffer;
+	private final int _width;
+	private final int _height;
+	private final int _stride;
+	private final boolean _rgba;
+
+	BufferSurface(PixelBuffer pixels) {
+		_buffer = pixels.getBuffer().duplicate().order(ByteOrder.BIG_ENDIAN);
+		_width = pixels.getWidth();
+		_height = pixels.getHeight();
+		_stride = pixels.getStride();
+		_rgba = pixels.getLayout() == PixelBuffer.Layout.RGBA;
+	}
+
+	@Override
+	public int getWidth() {
+		return _width;
+	}
+
+	@Override
+	public int getHeight() {
+		return _height;
+	}
+
+	@Override
+	public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		for (int row = 0; row < height; row++) {
+			int index = (y + row) * _stride + x * 4;
+			int out = offset + row * stride;
+			for (int col = 0; col < width; col++, index += 4) {
+				int value = _buffer.getInt(index);
+				// Big-endian RGBA reads as 0xRRGGBBAA
+				pixels[out + col] = _rgba ? (value >>> 8) | (value << 24) : value;
+			}
+		}
+	}
+
+	@Override
+	public void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		for (int row = 0; row < height; row++) {
+			int index = (y + row) * _stride + x * 4;
+			int in = offset + row * stride;
+			for (int col = 0; col < width; col++, index += 4) {
+				int value = pixels[in + col];
+				_buffer.putInt(index, _rgba ? (value << 8) | (value >>> 24) : value);
+			}
+		}
+	}
+
+	@Override
+	public boolean isPremultiplied() {
+		return true;
+	}
+}
@@ -0,0 +1,192 @@
+package com.enrique.stackblur;
+
+/**
+ * A color operation applied to each pixel as the blurred result is written out,
+ * so a tint, dim or desaturation costs no extra pass over the image.
+ *
+ * The transform is a 4x5 matrix in the same layout as android.graphics.ColorMatrix:
+ * <pre>
+ *   R' = a*R + b*G + c*B + d*A + e;
+ *   G' = f*R + g*G + h*B + i*A + j;
+ *   B' = k*R + l*G + m*B + n*A + o;
+ *   A' = p*R + q*G + r*B + s*A + t;
+ * </pre>
+ * Colors are non-premultiplied and in the range [0, 255]. Transforms are immutable
+ * and can be shared between threads.
+ */
+public final class ColorTransform {
+	/** Number of fractional bits in the fixed point coefficients */
+	static final int SHIFT = 14;
+	private static final float ONE = 1 << SHIFT;
+	private static final float MAX_COEFFICIENT = 32;
+
+	private final float[] _matrix;
+
+	/**
+	 * Coefficients scaled by 1 << SHIFT, in the same order as the matrix
+	 */
+	private final int[] _fixed;
+
+	private ColorTransform(float[] matrix) {
+		_matrix = matrix;
+		_fixed = new int[20];
+		for (int i = 0; i < 20; i++) {
+			float value = matrix[i];
+			if (i % 5 != 4) {
+				// Keep (coefficient * 255 * 4) well inside an int
+				value = Math.max(-MAX_COEFFICIENT, Math.min(MAX_COEFFICIENT, value));
+			} else {
+				value = Math.max(-255 * MAX_COEFFICIENT, Math.min(255 * MAX_COEFFICIENT, value));
+			}
+			_fixed[i] = Math.round(value * ONE);
+		}
+	}
+
+	/**
+	 * Create a transform from a 4x5 color matrix
+	 * @param colorMatrix 20 values, as returned by ColorMatrix.getArray()
+	 */
+	public static ColorTransform matrix(float[] colorMatrix) {
+		if (colorMatrix == null || colorMatrix.length != 20) {
+			throw new IllegalArgumentException("colorMatrix must have 20 elements");
+		}
+		return new ColorTransform(colorMatrix.clone());
+	}
+
+	/**
+	 * Change the saturation of the image, the same as ColorMatrix.setSaturation()
+	 * @param saturation 0 maps to grayscale, 1 is the identity
+	 */
+	public static ColorTransform saturation(float saturation) {
+		float invSat = 1 - saturation;
+		float r = 0.213f * invSat;
+		float g = 0.715f * invSat;
+		float b = 0.072f * invSat;
+		return new ColorTransform(new float[] {
+				r + saturation, g, b, 0, 0,
+				r, g + saturation, b, 0, 0,
+				r, g, b + saturation, 0, 0,
+				0, 0, 0, 1, 0,
+		});
+	}
+
+	/**
+	 * Draw a color over the image, using the alpha of the color as its opacity.
+	 * The alpha of the image is left unchanged.
+	 * @param color an ARGB color
+	 */
+	public static ColorTransform tint(int color) {
+		float alpha = (color >>> 24) / 255f;
+		float keep = 1 - alpha;
+		return new ColorTransform(new float[] {
+				keep, 0, 0, 0, ((color >>> 16) & 0xFF) * alpha,
+				0, keep, 0, 0, ((color >>> 8) & 0xFF) * alpha,
+				0, 0, keep, 0, (color & 0xFF) * alpha,
+				0, 0, 0, 1, 0,
+		});
+	}
+
+	/**
+	 * Darken the image, as if black were drawn over it
+	 * @param amount 0 leaves the image unchanged, 1 makes it black
+	 */
+	public static ColorTransform dim(float amount) {
+		if (amount < 0 || amount > 1) {
+			throw new IllegalArgumentException("amount must be between 0 and 1");
+		}
+		return tint(Math.round(amount * 255) << 24);
+	}
+
+	/**
+	 * Returns a transform which applies this transform, followed by next
+	 */
+	public ColorTransform then(ColorTransform next) {
+		float[] a = next._matrix;
+		float[] b = _matrix;
+		float[] result = new float[20];
+		for (int row = 0; row < 4; row++) {
+			for (int col = 0; col < 5; col++) {
+				float value = 0;
+				for (int k = 0; k < 4; k++) {
+					value += a[row * 5 + k] * b[k * 5 + col];
+				}
+				if (col == 4) {
+					value += a[row * 5 + 4];
+				}
+				result[row * 5 + col] = value;
+			}
+		}
+		return new ColorTransform(result);
+	}
+
+	/**
+	 * Returns a copy of the 4x5 color matrix
+	 */
+	public float[] getArray() {
+		return _matrix.clone();
+	}
+
+	/**
+	 * The fixed point coefficients, for the native code
+	 */
+	int[] fixedPoint() {
+		return _fixed;
+	}
+
+	/**
+	 * Transform the first len non-premultiplied ARGB pixels of line in place
+	 */
+	void apply(int[] line, int len) {
+		final int[] m = _fixed;
+		final int half = 1 << (SHIFT - 1);
+		for (int i = 0; i < len; i++) {
+			int pixel = line[i];
+			int a = pixel >>> 24;
+			int r = (pixel >>> 16) & 0xFF;
+			int g = (pixel >>> 8) & 0xFF;
+			int b = pixel & 0xFF;
+			int r2 = (m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4] + half) >> SHIFT;
+			int g2 = (m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9] + half) >> SHIFT;
+			int b2 = (m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14] + half) >> SHIFT;
+			int a2 = (m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19] + half) >> SHIFT;
+			r2 = r2 < 0 ? 0 : r2 > 255 ? 255 : r2;
+			g2 = g2 < 0 ? 0 : g2 > 255 ? 255 : g2;
+			b2 = b2 < 0 ? 0 : b2 > 255 ? 255 : b2;
+			a2 = a2 < 0 ? 0 : a2 > 255 ? 255 : a2;
+			line[i] = (a2 << 24) | (r2 << 16) | (g2 << 8) | b2;
+		}
+	}
+
+	/**
+	 * Transform the first len premultiplied ARGB pixels of line in place,
+	 * unpremultiplying around the matrix the same way as the native code
+	 */
+	void applyPremultiplied(int[] line, int len) {
+		for (int i = 0; i < len; i++) {
+			int pixel = line[i];
+			int a = pixel >>> 24;
+			if (a == 255) {
+				continue;
+			}
+			int r = 0, g = 0, b = 0;
+			if (a != 0) {
+				r = (((pixel >>> 16) & 0xFF) * 255 + a / 2) / a;
+				g = (((pixel >>> 8) & 0xFF) * 255 + a / 2) / a;
+				b = ((pixel & 0xFF) * 255 + a / 2) / a;
+			}
+			line[i] = (a << 24) | (Math.min(r, 255) << 16) | (Math.min(g, 255) << 8) | Math.min(b, 255);
+		}
+		apply(line, len);
+		for (int i = 0; i < len; i++) {
+			int pixel = line[i];
+			int a = pixel >>> 24;
+			if (a == 255) {
+				continue;
+			}
+			int r = (((pixel >>> 16) & 0xFF) * a + 127) / 255;
+			int g = (((pixel >>> 8) & 0xFF) * a + 127) / 255;
+			int b = ((pixel & 0xFF) * a + 127) / 255;
+			line[i] = (a << 24) | (r << 16) | (g << 8) | b;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.enrique.stackblur;
+
+/**
+ * Picks how coarsely an image can be decoded when it is only going to be blurred.
+ *
+ * A subsampling decoder may keep one pixel out of every n, so a detail thinner than a
+ * decoded pixel can disappear or grow to the width of one. Each pass of the blur weighs
+ * the centre pixel by 1 / (radius + 1), so when a decoded pixel covers step output
+ * pixels, the result changes by up to step / (radius + 1) of the contrast of the detail.
+ * Edges and smooth areas change far less than that.
+ */
+final class DecodeSampling {
+	/**
+	 * Error allowed on thin details, as a fraction of their contrast. Averaged over an
+	 * image, the error is several times smaller.
+	 */
+	static final float DEFAULT_MAX_ERROR = 0.1f;
+
+	private DecodeSampling() {
+	}
+
+	/**
+	 * The largest power of two the image can be subsampled by when decoding it, such as
+	 * BitmapFactory.Options.inSampleSize, and still be blurred into the output size with
+	 * the given radius to within maxError, or 1 when the image has to be decoded in full.
+	 *
+	 * @param radius   the blur radius in output pixels
+	 * @param maxError error allowed on thin details, as a fraction of their contrast
+	 */
+	static int sampleSize(int srcWidth, int srcHeight, int dstWidth, int dstHeight, float radius, float maxError) {
+		if (srcWidth <= 0 || srcHeight <= 0 || dstWidth <= 0 || dstHeight <= 0) {
+			throw new IllegalArgumentException("sizes must be > 0");
+		}
+		if (radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+		if (maxError < 0) {
+			throw new IllegalArgumentException("maxError must be >= 0");
+		}
+		// Widest decoded pixel, in output pixels
+		double maxStep = maxError * (radius + 1);
+		double srcPerDst = Math.min((double) srcWidth / dstWidth, (double) srcHeight / dstHeight);
+		double limit = Math.min(srcPerDst * maxStep, Math.min(srcWidth, srcHeight));
+		int sampleSize = 1;
+		while (sampleSize * 2 <= limit) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+}
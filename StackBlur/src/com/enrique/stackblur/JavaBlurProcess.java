@@ -1,8 +1,6 @@
 package com.enrique.stackblur;
 
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Rect;
 
 import java.util.ArrayList;
 import java.util.concurrent.Callable;
@@ -34,254 +32,248 @@ import java.util.concurrent.Callable;
  * @copyright: Enrique López Mañas
  * @license: Apache License 2.0
  */
-class JavaBlurProcess implements BlurProcess {
+class JavaBlurProcess implements BufferBlurProcess, MultiRadiusBlurProcess {
 	@Override
-	public void blur(Bitmap src, Bitmap dst, float radius) {
+	public void blur(Bitmap src, Bitmap dst, float radius, BlurParams params) {
 		if (!dst.isMutable()) {
 			throw new IllegalArgumentException("dst must be mutable");
 		}
 		if (radius < 0) {
 			throw new IllegalArgumentException("radius must be >= 0");
 		}
-		if (src != dst) {
-			Canvas canvas = new Canvas(dst);
-			Rect rect = new Rect(0, 0, dst.getWidth(), dst.getHeight());
-			canvas.drawBitmap(src, null, rect, null);
+		if (src == dst && LineBlur.fixedRadius(Math.max(radius, params.verticalRadius(radius))) == 0
+				&& params.transform == null) {
+			return;
 		}
-		float scale = Math.min((float) dst.getWidth() / src.getWidth(), (float) dst.getHeight() / src.getHeight());
-		radius *= scale;
+		PixelSurface dstSurface = new BitmapSurface(dst);
+		blur((src == dst) ? dstSurface : new BitmapSurface(src), dstSurface, radius, params);
+	}
 
-		int roundRadius = Math.round(radius);
-		if (roundRadius == 0) {
+	@Override
+	public void blur(PixelBuffer src, PixelBuffer dst, float radius, BlurParams params) {
+		if (dst.getBuffer().isReadOnly()) {
+			throw new IllegalArgumentException("dst must be writable");
+		}
+		if (radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+		if (src == dst && LineBlur.fixedRadius(Math.max(radius, params.verticalRadius(radius))) == 0
+				&& params.transform == null) {
 			return;
 		}
+		PixelSurface dstSurface = new BufferSurface(dst);
+		blur((src == dst) ? dstSurface : new BufferSurface(src), dstSurface, radius, params);
+	}
 
-		int cores = StackBlurManager.EXECUTOR_THREADS;
-
+	/**
+	 * Each row of src is read once, and blurred by every radius from that one line
+	 */
+	@Override
+	public void blur(Bitmap src, Bitmap[] dst, float[] radii, BlurParams params) {
+		checkOutputs(src, dst, radii);
+		int w = dst[0].getWidth();
+		int h = dst[0].getHeight();
+		float scale = Math.min((float) w / src.getWidth(), (float) h / src.getHeight());
+		PixelSurface srcSurface = new BitmapSurface(src);
+		PixelSurface[] dstSurfaces = new PixelSurface[dst.length];
+		int[] fixedRadii = new int[radii.length];
+		for (int k = 0; k < dst.length; k++) {
+			dstSurfaces[k] = new BitmapSurface(dst[k]);
+			fixedRadii[k] = LineBlur.fixedRadius(radii[k] * scale);
+		}
 
+		BlurStats stats = params.stats;
+		int cores = BlurExecutor.threads();
+		if (stats != null) {
+			stats.backend = "Java";
+			stats.threads = cores;
+		}
 		ArrayList<BlurTask> jobs = new ArrayList<BlurTask>(cores);
 		for (int i = 0; i < cores; i++) {
-			jobs.add(new BlurTask(dst, Math.round(radius), cores, i, false));
+			jobs.add(new BlurTask(srcSurface, dstSurfaces, fixedRadii, params.transform, params.checkpoint, cores, i,
+					false, params.linear));
 		}
 
-		try {
-			StackBlurManager.EXECUTOR.invokeAll(jobs);
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+		runPass(jobs, params, BlurPhase.HORIZONTAL);
+		if (stats != null) {
+			stats.bytesTouched += 4L * src.getWidth() * src.getHeight() + 4L * w * h * dst.length;
 		}
 
 		for (int i = 0, jobsSize = jobs.size(); i < jobsSize; i++) {
 			BlurTask job = jobs.get(i);
-			job.horizontal = true;
+			job.horizontal = false;
 		}
 
-		try {
-			StackBlurManager.EXECUTOR.invokeAll(jobs);
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+		runPass(jobs, params, BlurPhase.VERTICAL);
+		if (stats != null) {
+			stats.bytesTouched += 8L * w * h * dst.length;
 		}
 	}
 
-	private static class LineBlur {
-		private final Bitmap src;
-		private final int w;
-		private final int h;
-		private final int radius;
-		private final int div;
-		private final byte[] stackR;
-		private final byte[] stackG;
-		private final byte[] stackB;
-		private final byte[] stackA;
-		private final int divSum;
-		private final int[] line;
-
-
-		private LineBlur(Bitmap src, int w, int h, int radius, boolean blurAlpha) {
-			this.src = src;
-			this.w = w;
-			this.h = h;
-			this.radius = radius;
-
-			this.div = (radius * 2) + 1;
-			this.divSum = (radius + 1) * (radius + 1);
-			this.stackR = new byte[div];
-			this.stackG = new byte[div];
-			this.stackB = new byte[div];
-			if (blurAlpha) {
-				this.stackA = new byte[div];
-			} else {
-				this.stackA = null;
-			}
-			line = new int[Math.max(w, h)];
+	/**
+	 * Check the arguments of {@link MultiRadiusBlurProcess#blur}
+	 */
+	static void checkOutputs(Bitmap src, Bitmap[] dst, float[] radii) {
+		if (dst.length == 0 || dst.length != radii.length) {
+			throw new IllegalArgumentException("dst and radii must have the same, non zero length");
 		}
-
-		private void blurLine(int lineIdx, boolean horizontal) {
-			int lineLen;
-			if (horizontal) {
-				src.getPixels(line, 0, w, 0, lineIdx, w, 1);
-				lineLen = w;
-			} else {
-				src.getPixels(line, 0, 1, lineIdx, 0, 1, h);
-				lineLen = h;
+		for (int k = 0; k < dst.length; k++) {
+			if (!dst[k].isMutable()) {
+				throw new IllegalArgumentException("dst must be mutable");
 			}
-			int stack_i = 0;
-			int stack_drop = 0;
-			int inputValue;
-
-			int src_i = 0, dst_i = 0;
-
-			int r, g, b, a;
-			int sumR, sumG, sumB, sumA;
-			int sumInR, sumInG, sumInB, sumInA;
-			int sumOutR, sumOutG, sumOutB, sumOutA;
-
-			sumR = sumG = sumB = sumA = 0;
-			sumInR = sumInG = sumInB = sumInA = 0;
-			sumOutR = sumOutG = sumOutB = sumOutA = 0;
-
-			for (int i = 0; i <= radius; i++) {
-				stack_i = i;
-				inputValue = line[src_i];
-				if (this.stackA != null) {
-					a = inputValue >>> 24 & 0xFF;
-					stackA[stack_i] = (byte) a;
-					sumA += a * (i + 1);
-					sumOutA += a;
-				}
-				r = (inputValue >>> 16) & 0xFF;
-				g = (inputValue >>> 8) & 0xFF;
-				b = inputValue & 0xFF;
-				stackR[stack_i] = (byte) r;
-				stackG[stack_i] = (byte) g;
-				stackB[stack_i] = (byte) b;
-				sumR += r * (i + 1);
-				sumG += g * (i + 1);
-				sumB += b * (i + 1);
-				sumOutR += r;
-				sumOutG += g;
-				sumOutB += b;
+			if (dst[k].getWidth() != dst[0].getWidth() || dst[k].getHeight() != dst[0].getHeight()) {
+				throw new IllegalArgumentException("dst must all have the same size");
 			}
-
-			for (int i = 1; i <= radius; i++) {
-				if (src_i + 1 < lineLen) {
-					src_i += 1;
-				}
-				stack_i = i + radius;
-				inputValue = line[src_i];
-				if (stackA != null) {
-					a = (inputValue >>> 24) & 0xFF;
-					stackA[stack_i] = (byte) a;
-					sumA += a * (radius + 1 - i);
-					sumInA += a;
-				}
-				r = (inputValue >>> 16) & 0xFF;
-				g = (inputValue >>> 8) & 0xFF;
-				b = inputValue & 0xFF;
-				stackR[stack_i] = (byte) r;
-				stackG[stack_i] = (byte) g;
-				stackB[stack_i] = (byte) b;
-				sumR += r * (radius + 1 - i);
-				sumG += g * (radius + 1 - i);
-				sumB += b * (radius + 1 - i);
-				sumInR += r;
-				sumInG += g;
-				sumInB += b;
+			if (radii[k] < 0) {
+				throw new IllegalArgumentException("radius must be >= 0");
 			}
-
-			stack_i = radius;
-			while (true) {
-				if (src_i + 1 < lineLen) {
-					src_i += 1;
+			for (int j = 0; j < k; j++) {
+				if (dst[j] == dst[k]) {
+					throw new IllegalArgumentException("dst must be distinct");
 				}
+			}
+			if (dst[k] == src) {
+				throw new IllegalArgumentException("dst must not include src");
+			}
+		}
+	}
 
-				a = (stackA == null) ? (line[dst_i] >>> 24) : ((sumA + divSum / 2) / divSum);
-				r = (sumR + divSum / 2) / divSum;
-				g = (sumG + divSum / 2) / divSum;
-				b = (sumB + divSum / 2) / divSum;
-				line[dst_i] = (a << 24) | (r << 16) | (g << 8) | b;
-				dst_i += 1;
-				if (dst_i >= lineLen) {
-					break;
-				}
-
-				sumR -= sumOutR;
-				sumG -= sumOutG;
-				sumB -= sumOutB;
-				sumA -= sumOutA;
-
-				stack_drop = (stack_i + radius + 1) % div;
-				sumOutR -= (stackR[stack_drop] & 0xFF);
-				sumOutG -= (stackG[stack_drop] & 0xFF);
-				sumOutB -= (stackB[stack_drop] & 0xFF);
-				if (stackA != null) {
-					sumOutA -= (stackA[stack_drop] & 0xFF);
-				}
+	private void blur(PixelSurface src, PixelSurface dst, float radius, BlurParams params) {
+		float scale = Math.min((float) dst.getWidth() / src.getWidth(), (float) dst.getHeight() / src.getHeight());
 
-				inputValue = line[src_i];
-				r = (inputValue >>> 16) & 0xFF;
-				stackR[stack_drop] = (byte) r;
-				sumInR += r;
-				sumR += sumInR;
+		ColorTransform transform = params.transform;
+		BlurStats stats = params.stats;
+		// Fractional radii are blurred as they are, so animating the radius doesn't step
+		int radiusX = LineBlur.fixedRadius(radius * scale);
+		int radiusY = LineBlur.fixedRadius(params.verticalRadius(radius) * scale);
+		if (radiusX == 0 && radiusY == 0 && src == dst && transform == null) {
+			return;
+		}
 
-				g = (inputValue >>> 8) & 0xFF;
-				stackG[stack_drop] = (byte) g;
-				sumInG += g;
-				sumG += sumInG;
+		int cores = BlurExecutor.threads();
+		if (stats != null) {
+			stats.backend = "Java";
+			stats.threads = cores;
+		}
 
-				b = inputValue & 0xFF;
-				stackB[stack_drop] = (byte) b;
-				sumInB += b;
-				sumB += sumInB;
+		// The horizontal pass reads straight from src (resampling if the sizes
+		// differ) and writes into dst, so there is no separate copy of the image.
+		// Without it, the vertical pass does the same.
+		ArrayList<BlurTask> jobs = new ArrayList<BlurTask>(cores);
+		for (int i = 0; i < cores; i++) {
+			jobs.add(new BlurTask(src, dst, radiusX, radiusY, transform, params.checkpoint, cores, i, false,
+					params.linear));
+		}
 
-				if (stackA != null) {
-					a = (inputValue >>> 24) & 0xFF;
-					stackA[stack_drop] = (byte) a;
-					sumInA += a;
-					sumA += sumInA;
-				}
+		if (jobs.get(0)._blurs[0].horizontalPass) {
+			runPass(jobs, params, BlurPhase.HORIZONTAL);
+			if (stats != null) {
+				stats.bytesTouched += 4L * src.getWidth() * src.getHeight() + 4L * dst.getWidth() * dst.getHeight();
+			}
+		}
 
-				stack_i = (stack_i + 1) % div;
+		if (radiusY == 0) {
+			return;
+		}
 
-				sumOutR += (stackR[stack_i] & 0xFF);
-				sumInR -= (stackR[stack_i] & 0xFF);
+		for (int i = 0, jobsSize = jobs.size(); i < jobsSize; i++) {
+			BlurTask job = jobs.get(i);
+			job.horizontal = false;
+		}
 
-				sumOutG += (stackG[stack_i] & 0xFF);
-				sumInG -= (stackG[stack_i] & 0xFF);
+		runPass(jobs, params, BlurPhase.VERTICAL);
+		if (stats != null) {
+			stats.bytesTouched += 8L * dst.getWidth() * dst.getHeight();
+		}
+	}
 
-				sumOutB += (stackB[stack_i] & 0xFF);
-				sumInB -= (stackB[stack_i] & 0xFF);
+	@Override
+	public long estimateScratchBytes(int srcWidth, int srcHeight, int dstWidth, int dstHeight, float radius) {
+		float scale = Math.min((float) dstWidth / srcWidth, (float) dstHeight / srcHeight);
+		int fixedRadius = LineBlur.fixedRadius(radius * scale);
+		int wholeRadius = fixedRadius / LineBlur.RADIUS_SCALE;
+		int fraction = fixedRadius % LineBlur.RADIUS_SCALE;
+		int lineLen = Math.max(dstWidth, dstHeight);
+		long perThread = 4L * lineLen;
+		if (fixedRadius > 0) {
+			perThread *= 2;
+		}
+		if (wholeRadius > SmallRadiusBlur.MAX_RADIUS || fraction > 0) {
+			perThread += 8L * lineLen * PackedStackBlur.longsPerPixel(wholeRadius, true);
+		}
+		if (srcWidth != dstWidth || srcHeight != dstHeight) {
+			perThread += 4L * srcWidth + 32L * dstWidth;
+		}
+		return perThread * BlurExecutor.threads();
+	}
 
-				if (stackA != null) {
-					sumOutA += (stackA[stack_i] & 0xFF);
-					sumInA -= (stackA[stack_i] & 0xFF);
-				}
+	private static void runPass(ArrayList<BlurTask> jobs, BlurParams params, BlurPhase phase) {
+		BlurStats stats = params.stats;
+		long start = 0;
+		if (stats != null) {
+			start = System.nanoTime();
+			for (int i = 0, jobsSize = jobs.size(); i < jobsSize; i++) {
+				jobs.get(i).submitted = start;
 			}
+		}
 
-			if (horizontal) {
-				src.setPixels(line, 0, w, 0, lineIdx, w, 1);
-			} else {
-				src.setPixels(line, 0, 1, lineIdx, 0, 1, h);
+		try {
+			BlurExecutor.invokeAll(jobs, params);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (stats != null) {
+			stats.addPhase(phase, System.nanoTime() - start);
+			for (int i = 0, jobsSize = jobs.size(); i < jobsSize; i++) {
+				stats.queueWaitNanos = Math.max(stats.queueWaitNanos, jobs.get(i).queueWait);
 			}
 		}
 	}
 
 	private static class BlurTask implements Callable<Void> {
-		private final LineBlur _blur;
+		/** One per output, all reading the same rows of src */
+		private final LineBlur[] _blurs;
 		private final int _w;
 		private final int _h;
 		private final int _totalCores;
 		private final int _coreIndex;
-		boolean horizontal = false;
+		private final BlurCheckpoint _checkpoint;
+		boolean horizontal = true;
+		/** When the task was handed to the executor, only set when collecting stats */
+		long submitted;
+		long queueWait;
+
+		BlurTask(PixelSurface src, PixelSurface dst, int radiusX, int radiusY, ColorTransform transform,
+				BlurCheckpoint checkpoint, int totalCores, int coreIndex, boolean blurAlpha, boolean linear) {
+			_w = dst.getWidth();
+			_h = dst.getHeight();
+			_totalCores = totalCores;
+			_coreIndex = coreIndex;
+			_checkpoint = checkpoint;
+			_blurs = new LineBlur[] { new LineBlur(src, dst, radiusX, radiusY, transform, blurAlpha, linear) };
+		}
 
-		BlurTask(Bitmap src, int radius, int totalCores, int coreIndex, boolean blurAlpha) {
-			_w = src.getWidth();
-			_h = src.getHeight();
+		/**
+		 * @param radii the radius of each dst in 1/LineBlur.RADIUS_SCALE pixels, for both passes
+		 */
+		BlurTask(PixelSurface src, PixelSurface[] dst, int[] radii, ColorTransform transform,
+				BlurCheckpoint checkpoint, int totalCores, int coreIndex, boolean blurAlpha, boolean linear) {
+			_w = dst[0].getWidth();
+			_h = dst[0].getHeight();
 			_totalCores = totalCores;
 			_coreIndex = coreIndex;
-			_blur = new LineBlur(src, _w, _h, radius, blurAlpha);
+			_checkpoint = checkpoint;
+			_blurs = new LineBlur[dst.length];
+			for (int k = 0; k < dst.length; k++) {
+				_blurs[k] = new LineBlur(src, dst[k], radii[k], radii[k], transform, blurAlpha, linear);
+			}
 		}
 
 		@Override public Void call() throws Exception {
+			if (submitted != 0) {
+				queueWait = System.nanoTime() - submitted;
+			}
 			int _minLine;
 			int _maxLine;
 			if (horizontal) {
@@ -292,11 +284,36 @@ class JavaBlurProcess implements BlurProcess {
 				_maxLine = _w * (_coreIndex + 1) / _totalCores;
 			}
 
-			for (int i = _minLine; i < _maxLine; i++) {
-				_blur.blurLine(i, horizontal);
+			if (_checkpoint == null) {
+				for (int i = _minLine; i < _maxLine; i++) {
+					blurLine(i);
+				}
+				return null;
+			}
+			for (int chunk = _minLine; chunk < _maxLine; chunk += BlurCheckpoint.CHUNK_LINES) {
+				_checkpoint.check();
+				int end = Math.min(chunk + BlurCheckpoint.CHUNK_LINES, _maxLine);
+				for (int i = chunk; i < end; i++) {
+					blurLine(i);
+				}
 			}
 			return null;
 		}
 
+		private void blurLine(int i) {
+			if (_blurs.length == 1) {
+				_blurs[0].blurLine(i, horizontal);
+			} else if (horizontal) {
+				LineBlur.blurRow(_blurs, i);
+			} else {
+				// The columns of each output come from its own rows, so they are blurred separately
+				for (LineBlur blur : _blurs) {
+					if (blur.verticalPass) {
+						blur.blurLine(i, false);
+					}
+				}
+			}
+		}
+
 	}
 }
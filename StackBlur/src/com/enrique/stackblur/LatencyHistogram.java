@@ -0,0 +1,119 @@
+package com.enrique.stackblur;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, usually nanoseconds.
+ *
+ * Values are counted in log-linear buckets: each power of two is split into
+ * 16 buckets, so percentiles are accurate to about 6%. Recording takes three
+ * atomic adds, plus a compare-and-set when the value is a new maximum. It takes
+ * no lock and can be done from any number of threads.
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _total = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	static int bucketOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) Math.max(value, 0);
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	/**
+	 * The smallest value counted in the bucket
+	 */
+	static long lowerBound(int bucket) {
+		if (bucket < SUB_COUNT) {
+			return bucket;
+		}
+		int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+		int sub = bucket % SUB_COUNT;
+		return (1L << exp) | ((long) sub << (exp - SUB_BITS));
+	}
+
+	public void record(long value) {
+		_counts.incrementAndGet(bucketOf(value));
+		_total.incrementAndGet();
+		_sum.addAndGet(value);
+		long max;
+		while (value > (max = _max.get())) {
+			if (_max.compareAndSet(max, value)) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		return _total.get();
+	}
+
+	public long getMax() {
+		return _max.get();
+	}
+
+	public double getMean() {
+		long count = _total.get();
+		return count == 0 ? 0 : (double) _sum.get() / count;
+	}
+
+	/**
+	 * Returns an approximation of the value below which the given fraction of
+	 * the recorded values fall, or 0 if nothing has been recorded
+	 * @param fraction between 0 and 1, for example 0.95 for the 95th percentile
+	 */
+	public long getPercentile(double fraction) {
+		if (fraction < 0 || fraction > 1) {
+			throw new IllegalArgumentException("fraction must be between 0 and 1");
+		}
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = _counts.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				// Report the middle of the bucket, but never more than the largest value seen
+				long low = lowerBound(i);
+				long high = (i + 1 < BUCKETS) ? lowerBound(i + 1) : Long.MAX_VALUE;
+				return Math.min(low + (high - low) / 2, _max.get());
+			}
+		}
+		return _max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			_counts.set(i, 0);
+		}
+		_total.set(0);
+		_sum.set(0);
+		_max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount()
+				+ " p50=" + getPercentile(0.5)
+				+ " p95=" + getPercentile(0.95)
+				+ " p99=" + getPercentile(0.99)
+				+ " max=" + getMax();
+	}
+}
@@ -0,0 +1,296 @@
+package com.enrique.stackblur;
+
+import java.util.Arrays;
+
+/**
+ * The stack blur of a single line, with the scratch buffers to blur one line after
+ * another. Each thread needs its own LineBlur.
+ *
+ * Only depends on {@link PixelSurface}, so it is shared with the plain JVM build.
+ */
+final class LineBlur {
+	/** Radii are fixed point with this many steps per pixel, here and in the native kernel */
+	static final int RADIUS_SCALE = 256;
+
+	private final PixelSurface src;
+	private final PixelSurface dst;
+	private final int srcW;
+	private final int srcH;
+	private final int w;
+	private final int h;
+	/** The radii of the passes in 1/RADIUS_SCALE pixels */
+	private final int radiusX;
+	private final int radiusY;
+	private final ColorTransform transform;
+	private final boolean blurAlpha;
+	/**
+	 * Whether the rows need a pass: to blur them, to resample src, or to write dst when
+	 * the columns are not blurred. Otherwise the vertical pass reads src itself.
+	 */
+	final boolean horizontalPass;
+	/** Whether the columns need a pass, which is only ever to blur them */
+	final boolean verticalPass;
+	/** The kernels of each pass for fractional radii and those above SmallRadiusBlur.MAX_RADIUS */
+	private final PackedStackBlur packedBlurX;
+	private final PackedStackBlur packedBlurY;
+	/** Red, green and blue of each pixel of the line in linear light, when blurring in linear light */
+	private final int[] linearLine;
+	private final int[] line;
+	private final int[] outLine;
+	private final int[] srcLine;
+	private final long[] boxSum;
+
+
+	/**
+	 * @param linear blur the colors in linear light instead of on the sRGB values
+	 */
+	LineBlur(PixelSurface src, PixelSurface dst, int radius, ColorTransform transform, boolean blurAlpha,
+			boolean linear) {
+		this(src, dst, radius * RADIUS_SCALE, radius * RADIUS_SCALE, transform, blurAlpha, linear);
+	}
+
+	/**
+	 * @param radiusX the radius of the horizontal pass in 1/RADIUS_SCALE pixels
+	 * @param radiusY the radius of the vertical pass in 1/RADIUS_SCALE pixels, 0 to only blur the rows
+	 */
+	LineBlur(PixelSurface src, PixelSurface dst, int radiusX, int radiusY, ColorTransform transform,
+			boolean blurAlpha, boolean linear) {
+		this.src = src;
+		this.dst = dst;
+		this.srcW = src.getWidth();
+		this.srcH = src.getHeight();
+		this.w = dst.getWidth();
+		this.h = dst.getHeight();
+		this.radiusX = radiusX;
+		this.radiusY = radiusY;
+		this.transform = transform;
+
+		this.blurAlpha = blurAlpha;
+		horizontalPass = radiusX > 0 || radiusY == 0 || srcW != w || srcH != h;
+		verticalPass = radiusY > 0;
+		line = new int[Math.max(w, h)];
+		int maxRadius = Math.max(radiusX, radiusY);
+		linearLine = (linear && maxRadius > 0) ? new int[3 * line.length] : null;
+		// Small radii use the fixed-tap kernels and linear light a decoded line
+		outLine = (maxRadius > 0 && linearLine == null) ? new int[line.length] : null;
+		packedBlurX = packedBlur(radiusX);
+		packedBlurY = (radiusY == radiusX) ? packedBlurX : packedBlur(radiusY);
+		if (srcW != w || srcH != h) {
+			srcLine = new int[srcW];
+			boxSum = new long[w * 4];
+		} else {
+			srcLine = null;
+			boxSum = null;
+		}
+	}
+
+	/**
+	 * The radius in 1/RADIUS_SCALE pixels, rounded to the nearest step
+	 */
+	static int fixedRadius(float radius) {
+		return Math.round(radius * RADIUS_SCALE);
+	}
+
+	private PackedStackBlur packedBlur(int radius) {
+		int fraction = radius % RADIUS_SCALE;
+		if (linearLine != null || (fraction == 0 && radius <= SmallRadiusBlur.MAX_RADIUS * RADIUS_SCALE)) {
+			return null;
+		}
+		return new PackedStackBlur(line.length, radius / RADIUS_SCALE, fraction, blurAlpha);
+	}
+
+	/**
+	 * Blur one row (horizontal) or column of dst. The horizontal pass reads the row
+	 * from src, resampling it if the sizes differ; the vertical pass reads dst, or src
+	 * if there was no horizontal pass.
+	 */
+	void blurLine(int lineIdx, boolean horizontal) {
+		int lineLen;
+		if (horizontal) {
+			if (boxSum == null) {
+				src.getPixels(line, 0, w, 0, lineIdx, w, 1);
+			} else {
+				readScaledRow(lineIdx);
+			}
+			lineLen = w;
+		} else {
+			(horizontalPass ? dst : src).getPixels(line, 0, 1, lineIdx, 0, 1, h);
+			lineLen = h;
+		}
+		blurRead(line, lineIdx, horizontal, lineLen);
+	}
+
+	/**
+	 * Blur the same row of src into the dst of each of blurs, which must share src and
+	 * the size of dst. The row is read and resampled once, by the first of them, and
+	 * every radius then runs its own sums over that one line.
+	 */
+	static void blurRow(LineBlur[] blurs, int lineIdx) {
+		LineBlur first = blurs[0];
+		if (first.boxSum == null) {
+			first.src.getPixels(first.line, 0, first.w, 0, lineIdx, first.w, 1);
+		} else {
+			first.readScaledRow(lineIdx);
+		}
+		// The first blur may blur its line in place, so it goes last
+		for (int k = 1; k < blurs.length; k++) {
+			blurs[k].blurRead(first.line, lineIdx, true, first.w);
+		}
+		first.blurRead(first.line, lineIdx, true, first.w);
+	}
+
+	/**
+	 * Blur the line read into in, which is left unchanged unless it is this blur's own
+	 * line, and write it to dst
+	 */
+	private void blurRead(int[] in, int lineIdx, boolean horizontal, int lineLen) {
+		int radius = horizontal ? radiusX : radiusY;
+		int[] result = line;
+		if (radius > 0 && linearLine != null) {
+			blurLineLinear(in, lineLen, radius);
+		} else if (radius > 0) {
+			PackedStackBlur packedBlur = horizontal ? packedBlurX : packedBlurY;
+			if (packedBlur != null) {
+				packedBlur.blurLine(in, outLine, lineLen);
+			} else {
+				SmallRadiusBlur.blurLine(in, outLine, lineLen, radius / RADIUS_SCALE, blurAlpha);
+			}
+			result = outLine;
+		} else if (in != line) {
+			System.arraycopy(in, 0, line, 0, lineLen);
+		}
+		// Apply the color transform while the line is still in hand, on whichever pass is last
+		if (transform != null && (!horizontal || radiusY == 0)) {
+			if (dst.isPremultiplied()) {
+				transform.applyPremultiplied(result, lineLen);
+			} else {
+				transform.apply(result, lineLen);
+			}
+		}
+		if (horizontal) {
+			dst.setPixels(result, 0, w, 0, lineIdx, w, 1);
+		} else {
+			dst.setPixels(result, 0, 1, lineIdx, 0, 1, h);
+		}
+	}
+
+	/**
+	 * Box-filters the rows of src that map onto the given row of dst into line.
+	 * When dst is larger than src this degrades to nearest neighbour.
+	 */
+	private void readScaledRow(int y) {
+		int y0 = y * srcH / h;
+		int y1 = Math.max((y + 1) * srcH / h, y0 + 1);
+		Arrays.fill(boxSum, 0);
+		for (int sy = y0; sy < y1; sy++) {
+			src.getPixels(srcLine, 0, srcW, 0, sy, srcW, 1);
+			for (int x = 0, sum_i = 0; x < w; x++) {
+				int x0 = x * srcW / w;
+				int x1 = Math.max((x + 1) * srcW / w, x0 + 1);
+				long a = 0, r = 0, g = 0, b = 0;
+				for (int sx = x0; sx < x1; sx++) {
+					int inputValue = srcLine[sx];
+					a += inputValue >>> 24;
+					r += (inputValue >>> 16) & 0xFF;
+					g += (inputValue >>> 8) & 0xFF;
+					b += inputValue & 0xFF;
+				}
+				boxSum[sum_i++] += a;
+				boxSum[sum_i++] += r;
+				boxSum[sum_i++] += g;
+				boxSum[sum_i++] += b;
+			}
+		}
+		for (int x = 0, sum_i = 0; x < w; x++) {
+			int x0 = x * srcW / w;
+			int x1 = Math.max((x + 1) * srcW / w, x0 + 1);
+			long count = (long) (x1 - x0) * (y1 - y0);
+			int a = (int) ((boxSum[sum_i++] + count / 2) / count);
+			int r = (int) ((boxSum[sum_i++] + count / 2) / count);
+			int g = (int) ((boxSum[sum_i++] + count / 2) / count);
+			int b = (int) ((boxSum[sum_i++] + count / 2) / count);
+			line[x] = (a << 24) | (r << 16) | (g << 8) | b;
+		}
+	}
+
+	/**
+	 * The stack blur in linear light, from in into line. The line is decoded through
+	 * LinearLight, the same triangle filter as blurLine runs on the linear values, with the
+	 * sums of the pixels leaving and entering the stack, and each result is encoded back
+	 * as it is stored.
+	 * A fractional radius adds a wider box filter, as in PackedStackBlur.
+	 * Alpha is never blurred here.
+	 */
+	private void blurLineLinear(int[] in, int lineLen, int fixedRadius) {
+		final int radius = fixedRadius / RADIUS_SCALE;
+		final int fraction = fixedRadius % RADIUS_SCALE;
+		final int[] toLinear = LinearLight.TO_LINEAR;
+		final byte[] toSrgb = LinearLight.TO_SRGB;
+		final int[] lin = linearLine;
+		for (int i = 0, j = 0; i < lineLen; i++) {
+			int inputValue = in[i];
+			lin[j++] = toLinear[(inputValue >>> 16) & 0xFF];
+			lin[j++] = toLinear[(inputValue >>> 8) & 0xFF];
+			lin[j++] = toLinear[inputValue & 0xFF];
+		}
+
+		int last = lineLen - 1;
+		long divSum = (long) (radius + 1) * (radius + 1) * RADIUS_SCALE + (long) fraction * (2 * radius + 3);
+		long half = divSum / 2;
+		// Dividing longs costs more than the rest of the loop
+		double invDivSum = 1.0 / divSum;
+		long firstWeight = (long) (radius + 1) * (radius + 2) / 2;
+		long sumR = lin[0] * firstWeight, sumG = lin[1] * firstWeight, sumB = lin[2] * firstWeight;
+		int sumOutR = lin[0] * (radius + 1), sumOutG = lin[1] * (radius + 1), sumOutB = lin[2] * (radius + 1);
+		int sumInR = 0, sumInG = 0, sumInB = 0;
+		for (int k = 1; k <= radius; k++) {
+			int p = 3 * Math.min(k, last);
+			int weight = radius + 1 - k;
+			sumR += (long) lin[p] * weight;
+			sumG += (long) lin[p + 1] * weight;
+			sumB += (long) lin[p + 2] * weight;
+			sumInR += lin[p];
+			sumInG += lin[p + 1];
+			sumInB += lin[p + 2];
+		}
+
+		for (int i = 0; ; i++) {
+			int entering = 3 * Math.min(i + radius + 1, last);
+			int leaving = 3 * Math.max(i - radius, 0);
+			int outside = 3 * Math.max(i - radius - 1, 0);
+			long boxR = (long) sumOutR + sumInR + lin[outside] + lin[entering];
+			long boxG = (long) sumOutG + sumInG + lin[outside + 1] + lin[entering + 1];
+			long boxB = (long) sumOutB + sumInB + lin[outside + 2] + lin[entering + 2];
+			int r = toSrgb[divide(sumR * RADIUS_SCALE + fraction * boxR + half, divSum, invDivSum)] & 0xFF;
+			int g = toSrgb[divide(sumG * RADIUS_SCALE + fraction * boxG + half, divSum, invDivSum)] & 0xFF;
+			int b = toSrgb[divide(sumB * RADIUS_SCALE + fraction * boxB + half, divSum, invDivSum)] & 0xFF;
+			line[i] = (in[i] & 0xFF000000) | (r << 16) | (g << 8) | b;
+			if (i == last) {
+				break;
+			}
+			int centre = 3 * (i + 1);
+			sumR += sumInR + lin[entering] - sumOutR;
+			sumG += sumInG + lin[entering + 1] - sumOutG;
+			sumB += sumInB + lin[entering + 2] - sumOutB;
+			sumOutR += lin[centre] - lin[leaving];
+			sumOutG += lin[centre + 1] - lin[leaving + 1];
+			sumOutB += lin[centre + 2] - lin[leaving + 2];
+			sumInR += lin[entering] - lin[centre];
+			sumInG += lin[entering + 1] - lin[centre + 1];
+			sumInB += lin[entering + 2] - lin[centre + 2];
+		}
+	}
+
+	/**
+	 * sum / divSum, from a floating point estimate which is at most one off
+	 */
+	static int divide(long sum, long divSum, double invDivSum) {
+		long q = (long) (sum * invDivSum);
+		if (q * divSum > sum) {
+			q--;
+		} else if ((q + 1) * divSum <= sum) {
+			q++;
+		}
+		return (int) q;
+	}
+}
@@ -0,0 +1,36 @@
+package com.enrique.stackblur;
+
+/**
+ * Tables converting sRGB bytes to linear light and back, so blurring in linear light
+ * costs two lookups per channel instead of a pow() each way.
+ *
+ * Linear values have 12 bits: the darkest sRGB steps are about 1.2 linear steps apart,
+ * so every byte keeps its own value and decodes and encodes back to itself. The tables
+ * are rounded the same way as those in jni/stackblur.c.
+ */
+final class LinearLight {
+	/** The largest linear value */
+	static final int MAX = 4095;
+
+	/** Linear value of each sRGB byte */
+	static final int[] TO_LINEAR = new int[256];
+
+	/** sRGB byte of each linear value */
+	static final byte[] TO_SRGB = new byte[MAX + 1];
+
+	static {
+		for (int i = 0; i < TO_LINEAR.length; i++) {
+			double c = i / 255.0;
+			double l = (c <= 0.04045) ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+			TO_LINEAR[i] = (int) Math.floor(l * MAX + 0.5);
+		}
+		for (int i = 0; i <= MAX; i++) {
+			double l = (double) i / MAX;
+			double c = (l <= 0.0031308) ? l * 12.92 : 1.055 * Math.pow(l, 1 / 2.4) - 0.055;
+			TO_SRGB[i] = (byte) Math.floor(c * 255 + 0.5);
+		}
+	}
+
+	private LinearLight() {
+	}
+}
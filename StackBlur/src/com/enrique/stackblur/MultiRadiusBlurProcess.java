@@ -0,0 +1,19 @@
+package com.enrique.stackblur;
+
+import android.graphics.Bitmap;
+
+/**
+ * A {@link BlurProcess} which can also blur one image by several radii at once
+ */
+interface MultiRadiusBlurProcess extends BlurProcess {
+	/**
+	 * Blur src into each of dst by the radius at the same index, resampling if the sizes
+	 * differ, while reading src only once. Each radius is used along both axes; the
+	 * vertical radius of params is ignored.
+	 *
+	 * @param dst distinct bitmaps of the same size, none of which is src
+	 * @throws IllegalArgumentException if dst and radii differ in length, a bitmap is not
+	 *         mutable or differs in size, or a radius is negative
+	 */
+	void blur(Bitmap src, Bitmap[] dst, float[] radii, BlurParams params);
+}
@@ -5,6 +5,7 @@ import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.concurrent.Callable;
 
@@ -12,78 +13,330 @@ import java.util.concurrent.Callable;
  * @see JavaBlurProcess
  * Blur using the NDK and native code.
  */
-class NativeBlurProcess implements BlurProcess {
-	private static native void functionToBlur(Bitmap bitmapOut, int radius, int threadCount, int threadIndex, boolean horizontal);
+class NativeBlurProcess implements BufferBlurProcess, MultiRadiusBlurProcess {
+	private static native long functionToBlur(Bitmap bitmapIn, Bitmap bitmapOut, int radius, int[] transform, int lineStart, int lineEnd, boolean horizontal, boolean linear);
+
+	private static native long functionToBlurAll(Bitmap bitmapIn, Bitmap[] bitmapsOut, int[] radii, int[] transform, int lineStart, int lineEnd, boolean horizontal, boolean linear);
+
+	private static native void functionToBlurBuffer(ByteBuffer bufferIn, int widthIn, int heightIn, int strideIn,
+			ByteBuffer bufferOut, int width, int height, int stride,
+			int radius, int[] transform, int lineStart, int lineEnd, boolean horizontal, boolean linear);
 
 	static {
 		System.loadLibrary("blur");
 	}
 
 	@Override
-	public void blur(Bitmap src, Bitmap dst, float radius) {
+	public void blur(Bitmap src, Bitmap dst, float radius, BlurParams params) {
 		if (!dst.isMutable()) {
 			throw new IllegalArgumentException("dst must be mutable");
 		}
 		if (radius < 0) {
 			throw new IllegalArgumentException("radius must be >= 0");
 		}
-		if (dst != src) {
+		ColorTransform transform = params.transform;
+		BlurStats stats = params.stats;
+		float scale = Math.min((float) dst.getWidth() / src.getWidth(), (float) dst.getHeight() / src.getHeight());
+		if (dst != src && src.getConfig() != Bitmap.Config.ARGB_8888) {
+			// The native code can only read RGBA_8888, let the canvas convert other formats
+			long start = (stats != null) ? System.nanoTime() : 0;
 			Canvas canvas = new Canvas(dst);
 			Rect rect = new Rect(0, 0, dst.getWidth(), dst.getHeight());
 			canvas.drawBitmap(src, null, rect, null);
+			src = dst;
+			if (stats != null) {
+				stats.addPhase(BlurPhase.COPY, System.nanoTime() - start);
+			}
 		}
-		float scale = Math.min((float) dst.getWidth() / src.getWidth(), (float) dst.getHeight() / src.getHeight());
-		radius *= scale;
 
-		int roundRadius = Math.round(radius);
-		if (roundRadius == 0) {
+		int radiusX = LineBlur.fixedRadius(radius * scale);
+		int radiusY = LineBlur.fixedRadius(params.verticalRadius(radius) * scale);
+		if (radiusX == 0 && radiusY == 0 && src == dst && transform == null) {
 			return;
 		}
 
-		int cores = StackBlurManager.EXECUTOR_THREADS;
+		int cores = BlurExecutor.threads();
+		ArrayList<NativeTask> jobs = new ArrayList<NativeTask>(cores);
+		for (int i = 0; i < cores; i++) {
+			jobs.add(new NativeTask(src, dst, radiusX, radiusY, params, cores, i));
+		}
+		run(jobs, src.getWidth() * src.getHeight(), src != dst, params);
+	}
 
+	/**
+	 * Each row of src is read once and copied into every output while it is in cache,
+	 * then each output is blurred in place by its own radius
+	 */
+	@Override
+	public void blur(Bitmap src, Bitmap[] dst, float[] radii, BlurParams params) {
+		JavaBlurProcess.checkOutputs(src, dst, radii);
+		BlurStats stats = params.stats;
+		float scale = Math.min((float) dst[0].getWidth() / src.getWidth(), (float) dst[0].getHeight() / src.getHeight());
+		if (src.getConfig() != Bitmap.Config.ARGB_8888) {
+			// The native code can only read RGBA_8888, let the canvas convert other formats
+			long start = (stats != null) ? System.nanoTime() : 0;
+			Canvas canvas = new Canvas(dst[0]);
+			Rect rect = new Rect(0, 0, dst[0].getWidth(), dst[0].getHeight());
+			canvas.drawBitmap(src, null, rect, null);
+			src = dst[0];
+			if (stats != null) {
+				stats.addPhase(BlurPhase.COPY, System.nanoTime() - start);
+			}
+		}
+
+		int[] fixedRadii = new int[radii.length];
+		for (int k = 0; k < radii.length; k++) {
+			fixedRadii[k] = LineBlur.fixedRadius(radii[k] * scale);
+		}
+		int cores = BlurExecutor.threads();
 		ArrayList<NativeTask> jobs = new ArrayList<NativeTask>(cores);
 		for (int i = 0; i < cores; i++) {
-			jobs.add(new NativeTask(dst, roundRadius, cores, i));
+			jobs.add(new NativeTask(src, dst, fixedRadii, params, cores, i));
 		}
+		run(jobs, src.getWidth() * src.getHeight(), true, params);
+	}
 
-		try {
-			StackBlurManager.EXECUTOR.invokeAll(jobs);
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+	/**
+	 * Blur the buffers in place through GetDirectBufferAddress, without copying them.
+	 * The native code only handles RGBA pixels, so ARGB buffers are blurred in Java.
+	 *
+	 * @throws IllegalArgumentException if either buffer is not direct
+	 */
+	@Override
+	public void blur(PixelBuffer src, PixelBuffer dst, float radius, BlurParams params) {
+		if (src.getLayout() != PixelBuffer.Layout.RGBA || dst.getLayout() != PixelBuffer.Layout.RGBA) {
+			BlurService.javaProcess().blur(src, dst, radius, params);
+			return;
+		}
+		if (!src.getBuffer().isDirect() || !dst.getBuffer().isDirect()) {
+			throw new IllegalArgumentException("buffers must be direct");
+		}
+		if (dst.getBuffer().isReadOnly()) {
+			throw new IllegalArgumentException("dst must be writable");
+		}
+		if (radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+		float scale = Math.min((float) dst.getWidth() / src.getWidth(), (float) dst.getHeight() / src.getHeight());
+		int radiusX = LineBlur.fixedRadius(radius * scale);
+		int radiusY = LineBlur.fixedRadius(params.verticalRadius(radius) * scale);
+		if (radiusX == 0 && radiusY == 0 && src == dst && params.transform == null) {
+			return;
+		}
+
+		int cores = BlurExecutor.threads();
+		ArrayList<NativeTask> jobs = new ArrayList<NativeTask>(cores);
+		for (int i = 0; i < cores; i++) {
+			jobs.add(new NativeTask(src, dst, radiusX, radiusY, params, cores, i));
+		}
+		run(jobs, src.getWidth() * src.getHeight(), src != dst, params);
+	}
+
+	/**
+	 * @param copy whether src has to be copied into dst by the horizontal pass
+	 */
+	private static void run(ArrayList<NativeTask> jobs, int srcPixels, boolean copy, BlurParams params) {
+		BlurStats stats = params.stats;
+		NativeTask first = jobs.get(0);
+		if (stats != null) {
+			stats.backend = "Native";
+			stats.threads = jobs.size();
+		}
+
+		// The horizontal pass reads straight from src and writes into dst. With a radius
+		// of 0 it only copies, which a blur in place of the columns alone can skip.
+		int outputs = (first._bitmapsOut != null) ? first._bitmapsOut.length : 1;
+		if (first._radiusX > 0 || first._radiusY == 0 || copy) {
+			runPass(jobs, params, BlurPhase.HORIZONTAL);
+			if (stats != null) {
+				stats.bytesTouched += 4L * srcPixels + 4L * first._width * first._height * outputs;
+			}
+		}
+
+		if (first._radiusY == 0) {
+			return;
 		}
 
 		for (int i = 0, jobsSize = jobs.size(); i < jobsSize; i++) {
 			NativeTask job = jobs.get(i);
-			job.horizontal = true;
+			job.horizontal = false;
+		}
+
+		runPass(jobs, params, BlurPhase.VERTICAL);
+		if (stats != null) {
+			stats.bytesTouched += 8L * first._width * first._height * outputs;
+		}
+	}
+
+	@Override
+	public long estimateScratchBytes(int srcWidth, int srcHeight, int dstWidth, int dstHeight, float radius) {
+		long perThread = 4L * (Math.max(dstWidth, dstHeight) + 2 * Math.round(radius) + 1);
+		if (srcWidth != dstWidth || srcHeight != dstHeight) {
+			perThread += 16L * dstWidth;
+		}
+		return perThread * BlurExecutor.threads();
+	}
+
+	private static void runPass(ArrayList<NativeTask> jobs, BlurParams params, BlurPhase phase) {
+		BlurStats stats = params.stats;
+		long start = 0;
+		if (stats != null) {
+			start = System.nanoTime();
+			for (int i = 0, jobsSize = jobs.size(); i < jobsSize; i++) {
+				jobs.get(i).submitted = start;
+			}
 		}
 
 		try {
-			StackBlurManager.EXECUTOR.invokeAll(jobs);
+			BlurExecutor.invokeAll(jobs, params);
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
+
+		if (stats != null) {
+			stats.addPhase(phase, System.nanoTime() - start);
+			for (int i = 0, jobsSize = jobs.size(); i < jobsSize; i++) {
+				NativeTask job = jobs.get(i);
+				stats.queueWaitNanos = Math.max(stats.queueWaitNanos, job.queueWait);
+				stats.addPhase(BlurPhase.LOCK_PIXELS, job.lockNanos);
+			}
+		}
 	}
 
 	private static class NativeTask implements Callable<Void> {
+		private final Bitmap _bitmapIn;
 		private final Bitmap _bitmapOut;
-		private final int _radius;
+		/** Set instead of the bitmaps when blurring buffers */
+		private final PixelBuffer _bufferIn;
+		private final PixelBuffer _bufferOut;
+		/** Set instead of _bitmapOut when blurring into several bitmaps, with the radius of each */
+		private final Bitmap[] _bitmapsOut;
+		private final int[] _radii;
+		private final int _width;
+		private final int _height;
+		/** The radii of the passes in 1/LineBlur.RADIUS_SCALE pixels, the largest of _radii if set */
+		private final int _radiusX;
+		private final int _radiusY;
+		private final int[] _transform;
 		private final int _totalCores;
 		private final int _coreIndex;
+		private final BlurCheckpoint _checkpoint;
+		private final boolean _linear;
 		boolean horizontal;
+		/** When the task was handed to the executor, only set when collecting stats */
+		long submitted;
+		long queueWait;
+		long lockNanos;
 
-		NativeTask(Bitmap bitmapOut, int radius, int totalCores, int coreIndex) {
+		NativeTask(Bitmap bitmapIn, Bitmap bitmapOut, int radiusX, int radiusY, BlurParams params, int totalCores,
+				int coreIndex) {
+			_bitmapIn = bitmapIn;
 			_bitmapOut = bitmapOut;
-			_radius = radius;
+			_bufferIn = null;
+			_bufferOut = null;
+			_bitmapsOut = null;
+			_radii = null;
+			_width = bitmapOut.getWidth();
+			_height = bitmapOut.getHeight();
+			_radiusX = radiusX;
+			_radiusY = radiusY;
+			_transform = (params.transform != null) ? params.transform.fixedPoint() : null;
 			_totalCores = totalCores;
 			_coreIndex = coreIndex;
-			horizontal = false;
+			_checkpoint = params.checkpoint;
+			_linear = params.linear;
+			horizontal = true;
+		}
+
+		NativeTask(PixelBuffer bufferIn, PixelBuffer bufferOut, int radiusX, int radiusY, BlurParams params,
+				int totalCores, int coreIndex) {
+			_bitmapIn = null;
+			_bitmapOut = null;
+			_bufferIn = bufferIn;
+			_bufferOut = bufferOut;
+			_bitmapsOut = null;
+			_radii = null;
+			_width = bufferOut.getWidth();
+			_height = bufferOut.getHeight();
+			_radiusX = radiusX;
+			_radiusY = radiusY;
+			_transform = (params.transform != null) ? params.transform.fixedPoint() : null;
+			_totalCores = totalCores;
+			_coreIndex = coreIndex;
+			_checkpoint = params.checkpoint;
+			_linear = params.linear;
+			horizontal = true;
+		}
+
+		/**
+		 * @param radii the radius of each of bitmapsOut in 1/LineBlur.RADIUS_SCALE pixels
+		 */
+		NativeTask(Bitmap bitmapIn, Bitmap[] bitmapsOut, int[] radii, BlurParams params, int totalCores,
+				int coreIndex) {
+			_bitmapIn = bitmapIn;
+			_bitmapOut = null;
+			_bufferIn = null;
+			_bufferOut = null;
+			_bitmapsOut = bitmapsOut;
+			_radii = radii;
+			_width = bitmapsOut[0].getWidth();
+			_height = bitmapsOut[0].getHeight();
+			int maxRadius = 0;
+			for (int radius : radii) {
+				maxRadius = Math.max(maxRadius, radius);
+			}
+			// An output with a radius of 0 is only transformed, which the vertical pass does
+			// if there is one
+			_radiusX = maxRadius;
+			_radiusY = maxRadius;
+			_transform = (params.transform != null) ? params.transform.fixedPoint() : null;
+			_totalCores = totalCores;
+			_coreIndex = coreIndex;
+			_checkpoint = params.checkpoint;
+			_linear = params.linear;
+			horizontal = true;
 		}
 
 		@Override public Void call() throws Exception {
-			functionToBlur(_bitmapOut, _radius, _totalCores, _coreIndex, horizontal);
+			if (submitted != 0) {
+				queueWait = System.nanoTime() - submitted;
+			}
+			int lines = horizontal ? _height : _width;
+			int minLine = lines * _coreIndex / _totalCores;
+			int maxLine = lines * (_coreIndex + 1) / _totalCores;
+			if (_checkpoint == null) {
+				lockNanos = blurLines(minLine, maxLine);
+				return null;
+			}
+			// Each chunk locks the pixels again, so only pay for it when the blur can be cancelled
+			lockNanos = 0;
+			for (int chunk = minLine; chunk < maxLine; chunk += BlurCheckpoint.CHUNK_LINES) {
+				_checkpoint.check();
+				lockNanos += blurLines(chunk, Math.min(chunk + BlurCheckpoint.CHUNK_LINES, maxLine));
+			}
 			return null;
 		}
 
+		/**
+		 * @return the time spent locking pixels
+		 */
+		private long blurLines(int start, int end) {
+			int radius = horizontal ? _radiusX : _radiusY;
+			// Only the last pass applies the transform
+			int[] transform = (horizontal && _radiusY > 0) ? null : _transform;
+			if (_bitmapsOut != null) {
+				return functionToBlurAll(_bitmapIn, _bitmapsOut, _radii, transform, start, end, horizontal, _linear);
+			}
+			if (_bufferOut == null) {
+				return functionToBlur(_bitmapIn, _bitmapOut, radius, transform, start, end, horizontal, _linear);
+			}
+			// Only the horizontal pass reads the source
+			PixelBuffer in = horizontal ? _bufferIn : _bufferOut;
+			functionToBlurBuffer(in.getBuffer(), in.getWidth(), in.getHeight(), in.getStride(),
+					_bufferOut.getBuffer(), _width, _height, _bufferOut.getStride(),
+					radius, transform, start, end, horizontal, _linear);
+			return 0;
+		}
+
 	}
 }
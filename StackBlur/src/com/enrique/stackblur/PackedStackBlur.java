@@ -0,0 +1,233 @@
+package com.enrique.stackblur;
+
+/**
+ * The general stack blur with the channels of a pixel packed into the lanes of a long,
+ * so one add or subtract updates all of them at once. Runtimes without a vector API,
+ * such as ART, still have 64 bit registers.
+ *
+ * A lane has to hold the largest sum, 255 * (radius + 1)^2, which sets the layout:
+ * <ul>
+ *   <li>four 16 bit lanes, alpha included, up to radius 15</li>
+ *   <li>three 21 bit lanes, alpha copied, up to radius 89</li>
+ *   <li>two longs of two 32 bit lanes above that</li>
+ * </ul>
+ * Lanes may borrow from each other while a sum is being updated, but every sum ends up
+ * between 0 and its maximum, so the lanes are exact whenever they are read.
+ *
+ * The output is identical to the stack blur summed one channel at a time, including the
+ * rounding and the clamping at the ends of the line. Sums are divided by multiplying by
+ * a reciprocal, which is exact for every sum the blur can produce.
+ *
+ * A fractional radius r + f weights the pixels by the triangle of radius r plus f times
+ * a box filter of 2r + 3 pixels, which moves smoothly from one whole radius to the next.
+ * The box is the sums of the pixels leaving and entering the stack plus the two pixels
+ * just outside it, so it needs no extra sums, and fits the same lanes. The triangle and
+ * the box are only combined channel by channel on output.
+ */
+final class PackedStackBlur {
+	/** Largest radius for four lanes of one long */
+	static final int MAX_RADIUS_4_LANES = 15;
+	/** Largest radius for three lanes of one long */
+	static final int MAX_RADIUS_3_LANES = 89;
+
+	private final int radius;
+	/** The fraction of the radius in 1/LineBlur.RADIUS_SCALE pixels */
+	private final int fraction;
+	private final boolean blurAlpha;
+	private final long[] packed;
+	/** Alpha and green, when the pixels take two longs */
+	private final long[] packedAG;
+	/** The sum of the weights, in 1/LineBlur.RADIUS_SCALE for a fractional radius */
+	private final long divSum;
+	private final long half;
+	/**
+	 * Sums are below 2^n. Multiplying by the reciprocal of divSum rounded up to
+	 * n + log2(divSum) bits and shifting back is exact for all of them. Past 2^31 the
+	 * product would overflow, shift is -1 and sums are divided through a floating
+	 * point estimate instead.
+	 */
+	private final long multiplier;
+	private final int shift;
+	private final double invDivSum;
+
+	/**
+	 * @param maxLen the longest line that will be blurred
+	 * @param blurAlpha if false, the alpha of each pixel is copied unchanged
+	 */
+	PackedStackBlur(int maxLen, int radius, boolean blurAlpha) {
+		this(maxLen, radius, 0, blurAlpha);
+	}
+
+	/**
+	 * @param fraction added to the radius, in 1/LineBlur.RADIUS_SCALE pixels
+	 */
+	PackedStackBlur(int maxLen, int radius, int fraction, boolean blurAlpha) {
+		this.radius = radius;
+		this.fraction = fraction;
+		this.blurAlpha = blurAlpha;
+		packed = new long[maxLen];
+		packedAG = (longsPerPixel(radius, blurAlpha) == 2) ? new long[maxLen] : null;
+		if (fraction > 0) {
+			divSum = (long) (radius + 1) * (radius + 1) * LineBlur.RADIUS_SCALE + (long) fraction * (2 * radius + 3);
+		} else {
+			divSum = (long) (radius + 1) * (radius + 1);
+		}
+		half = divSum / 2;
+		invDivSum = 1.0 / divSum;
+		int sumBits = 64 - Long.numberOfLeadingZeros(255 * divSum + half);
+		if (sumBits <= 31) {
+			shift = sumBits + 64 - Long.numberOfLeadingZeros(divSum - 1);
+			multiplier = ((1L << shift) + divSum - 1) / divSum;
+		} else {
+			shift = -1;
+			multiplier = 0;
+		}
+	}
+
+	/**
+	 * Longs of scratch space per pixel for the given whole radius
+	 */
+	static int longsPerPixel(int radius, boolean blurAlpha) {
+		return (radius <= (blurAlpha ? MAX_RADIUS_4_LANES : MAX_RADIUS_3_LANES)) ? 1 : 2;
+	}
+
+	/**
+	 * Blur the first len pixels of in into out
+	 */
+	void blurLine(int[] in, int[] out, int len) {
+		if (packedAG == null) {
+			blurOneLong(in, out, len);
+		} else {
+			blurTwoLongs(in, out, len);
+		}
+	}
+
+	private void blurOneLong(int[] in, int[] out, int len) {
+		final long[] packed = this.packed;
+		final int radius = this.radius;
+		final int fraction = this.fraction;
+		final boolean blurAlpha = this.blurAlpha;
+		// Blue, green, red and alpha from the bottom up
+		final int bits = blurAlpha ? 16 : 21;
+		final long mask = (1L << bits) - 1;
+		for (int i = 0; i < len; i++) {
+			int inputValue = in[i];
+			long p = ((long) ((inputValue >>> 16) & 0xFF) << (2 * bits)) | (((inputValue >>> 8) & 0xFF) << bits)
+					| (inputValue & 0xFF);
+			if (blurAlpha) {
+				p |= (long) (inputValue >>> 24) << (3 * bits);
+			}
+			packed[i] = p;
+		}
+
+		final int last = len - 1;
+		final long half = this.half;
+		final long multiplier = this.multiplier;
+		final int shift = this.shift;
+		long sum = packed[0] * ((radius + 1) * (radius + 2) / 2);
+		long sumOut = packed[0] * (radius + 1);
+		long sumIn = 0;
+		for (int k = 1; k <= radius; k++) {
+			long p = packed[Math.min(k, last)];
+			sum += p * (radius + 1 - k);
+			sumIn += p;
+		}
+
+		for (int i = 0; ; i++) {
+			long entering = packed[Math.min(i + radius + 1, last)];
+			int a, r, g, b;
+			if (fraction == 0) {
+				a = blurAlpha ? (int) ((((sum >>> (3 * bits)) + half) * multiplier) >>> shift) : in[i] >>> 24;
+				r = (int) (((((sum >>> (2 * bits)) & mask) + half) * multiplier) >>> shift);
+				g = (int) (((((sum >>> bits) & mask) + half) * multiplier) >>> shift);
+				b = (int) ((((sum & mask) + half) * multiplier) >>> shift);
+			} else {
+				long box = sumOut + sumIn + packed[Math.max(i - radius - 1, 0)] + entering;
+				a = blurAlpha ? divide(sum >>> (3 * bits), box >>> (3 * bits)) : in[i] >>> 24;
+				r = divide((sum >>> (2 * bits)) & mask, (box >>> (2 * bits)) & mask);
+				g = divide((sum >>> bits) & mask, (box >>> bits) & mask);
+				b = divide(sum & mask, box & mask);
+			}
+			out[i] = (a << 24) | (r << 16) | (g << 8) | b;
+			if (i == last) {
+				break;
+			}
+			long centre = packed[i + 1];
+			sum += sumIn + entering - sumOut;
+			sumOut += centre - packed[Math.max(i - radius, 0)];
+			sumIn += entering - centre;
+		}
+	}
+
+	/**
+	 * Red and blue in packed, alpha and green in packedAG, each in two 32 bit lanes
+	 */
+	private void blurTwoLongs(int[] in, int[] out, int len) {
+		final long[] rb = this.packed;
+		final long[] ag = this.packedAG;
+		final int radius = this.radius;
+		final int fraction = this.fraction;
+		for (int i = 0; i < len; i++) {
+			int inputValue = in[i];
+			rb[i] = ((long) (inputValue & 0xFF0000) << 16) | (inputValue & 0xFF);
+			ag[i] = ((long) (inputValue >>> 24) << 32) | ((inputValue >>> 8) & 0xFF);
+		}
+
+		final int last = len - 1;
+		long firstWeight = (long) (radius + 1) * (radius + 2) / 2;
+		long sumRB = rb[0] * firstWeight, sumAG = ag[0] * firstWeight;
+		long sumOutRB = rb[0] * (radius + 1), sumOutAG = ag[0] * (radius + 1);
+		long sumInRB = 0, sumInAG = 0;
+		for (int k = 1; k <= radius; k++) {
+			int p = Math.min(k, last);
+			sumRB += rb[p] * (radius + 1 - k);
+			sumAG += ag[p] * (radius + 1 - k);
+			sumInRB += rb[p];
+			sumInAG += ag[p];
+		}
+
+		for (int i = 0; ; i++) {
+			int entering = Math.min(i + radius + 1, last);
+			int a, r, g, b;
+			if (fraction == 0) {
+				a = blurAlpha ? divide(sumAG >>> 32) : in[i] >>> 24;
+				r = divide(sumRB >>> 32);
+				g = divide(sumAG & 0xFFFFFFFFL);
+				b = divide(sumRB & 0xFFFFFFFFL);
+			} else {
+				int outside = Math.max(i - radius - 1, 0);
+				long boxRB = sumOutRB + sumInRB + rb[outside] + rb[entering];
+				long boxAG = sumOutAG + sumInAG + ag[outside] + ag[entering];
+				a = blurAlpha ? divide(sumAG >>> 32, boxAG >>> 32) : in[i] >>> 24;
+				r = divide(sumRB >>> 32, boxRB >>> 32);
+				g = divide(sumAG & 0xFFFFFFFFL, boxAG & 0xFFFFFFFFL);
+				b = divide(sumRB & 0xFFFFFFFFL, boxRB & 0xFFFFFFFFL);
+			}
+			out[i] = (a << 24) | (r << 16) | (g << 8) | b;
+			if (i == last) {
+				break;
+			}
+			int leaving = Math.max(i - radius, 0);
+			sumRB += sumInRB + rb[entering] - sumOutRB;
+			sumAG += sumInAG + ag[entering] - sumOutAG;
+			sumOutRB += rb[i + 1] - rb[leaving];
+			sumOutAG += ag[i + 1] - ag[leaving];
+			sumInRB += rb[entering] - rb[i + 1];
+			sumInAG += ag[entering] - ag[i + 1];
+		}
+	}
+
+	/**
+	 * The channel of a fractional radius, from its triangle and box sums
+	 */
+	private int divide(long triangle, long box) {
+		return divide(triangle * LineBlur.RADIUS_SCALE + fraction * box);
+	}
+
+	private int divide(long sum) {
+		if (shift < 0) {
+			return LineBlur.divide(sum + half, divSum, invDivSum);
+		}
+		return (int) (((sum + half) * multiplier) >>> shift);
+	}
+}
@@ -0,0 +1,81 @@
+package com.enrique.stackblur;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 32 bit pixels in a ByteBuffer, such as a GL readback or the output of a decoder,
+ * which can be blurred without copying them into a Bitmap.
+ *
+ * The first pixel is at index 0 of the buffer, whatever its position; use
+ * ByteBuffer.slice() to start further in. Colors are premultiplied by alpha,
+ * as in Bitmap memory and GL framebuffers.
+ *
+ * @see StackBlurManager#processBuffer(PixelBuffer, PixelBuffer, int, ColorTransform)
+ */
+public final class PixelBuffer {
+	/**
+	 * The order of the bytes of each pixel in memory
+	 */
+	public enum Layout {
+		/** R, G, B, A: Bitmap.Config.ARGB_8888 memory, GL_RGBA readbacks */
+		RGBA,
+		/** A, R, G, B: int ARGB colors stored big-endian */
+		ARGB,
+	}
+
+	private final ByteBuffer _buffer;
+	private final int _width;
+	private final int _height;
+	private final int _stride;
+	private final Layout _layout;
+
+	/**
+	 * @param stride the number of bytes from the start of one row to the next, at least width * 4
+	 */
+	public PixelBuffer(ByteBuffer buffer, int width, int height, int stride, Layout layout) {
+		if (buffer == null || layout == null) {
+			throw new IllegalArgumentException("buffer and layout must not be null");
+		}
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("width and height must be > 0");
+		}
+		if (stride < width * 4 || stride % 4 != 0) {
+			throw new IllegalArgumentException("stride must be a multiple of 4, and at least width * 4");
+		}
+		if ((long) stride * (height - 1) + width * 4L > buffer.capacity()) {
+			throw new IllegalArgumentException("buffer is too small for " + width + "x" + height + " pixels");
+		}
+		_buffer = buffer;
+		_width = width;
+		_height = height;
+		_stride = stride;
+		_layout = layout;
+	}
+
+	/**
+	 * Tightly packed pixels, with a stride of width * 4
+	 */
+	public PixelBuffer(ByteBuffer buffer, int width, int height, Layout layout) {
+		this(buffer, width, height, width * 4, layout);
+	}
+
+	public ByteBuffer getBuffer() {
+		return _buffer;
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getHeight() {
+		return _height;
+	}
+
+	public int getStride() {
+		return _stride;
+	}
+
+	public Layout getLayout() {
+		return _layout;
+	}
+}
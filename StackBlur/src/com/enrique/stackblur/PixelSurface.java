@@ -0,0 +1,26 @@
+package com.enrique.stackblur;
+
+/**
+ * Pixels the Java kernel can read and write a line at a time, whether they live
+ * in a Bitmap or a buffer.
+ */
+interface PixelSurface {
+	int getWidth();
+
+	int getHeight();
+
+	/**
+	 * Copy a rectangle of pixels into an array as ARGB ints, like Bitmap.getPixels
+	 */
+	void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+
+	/**
+	 * Copy ARGB ints into a rectangle of pixels, like Bitmap.setPixels
+	 */
+	void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+
+	/**
+	 * True if the colors returned by getPixels are premultiplied by their alpha
+	 */
+	boolean isPremultiplied();
+}
@@ -0,0 +1,60 @@
+package com.enrique.stackblur;
+
+/**
+ * How long each step of {@link StackBlurManager#prewarm} took, and which backends are
+ * ready to use
+ */
+public final class PrewarmReport {
+	private static final PrewarmStep[] STEPS = PrewarmStep.values();
+
+	private final long[] stepNanos = new long[STEPS.length];
+	private final boolean[] available = new boolean[STEPS.length];
+	long totalNanos;
+
+	PrewarmReport() {
+	}
+
+	void addStep(PrewarmStep step, long nanos, boolean succeeded) {
+		stepNanos[step.ordinal()] = nanos;
+		available[step.ordinal()] = succeeded;
+	}
+
+	/**
+	 * Time spent in the given step, or 0 if it was skipped
+	 */
+	public long getStepNanos(PrewarmStep step) {
+		return stepNanos[step.ordinal()];
+	}
+
+	/**
+	 * Whether the step ran and succeeded. False if it failed, such as the native
+	 * library not being packaged for this device, or if it was skipped because no
+	 * context was given or the step before it failed.
+	 */
+	public boolean isAvailable(PrewarmStep step) {
+		return available[step.ordinal()];
+	}
+
+	/**
+	 * Wall clock time of the whole call
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("prewarm total=").append(totalNanos / 1000).append("us");
+		for (PrewarmStep step : STEPS) {
+			long nanos = stepNanos[step.ordinal()];
+			if (nanos != 0) {
+				builder.append(' ').append(step.name().toLowerCase()).append('=').append(nanos / 1000).append("us");
+				if (!available[step.ordinal()]) {
+					builder.append("(failed)");
+				}
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,19 @@
+package com.enrique.stackblur;
+
+/**
+ * The steps of {@link StackBlurManager#prewarm}, in the order they run
+ */
+public enum PrewarmStep {
+	/** Creating the library's own pool and starting all its threads */
+	EXECUTOR,
+	/** Loading the Java kernels and running them on a small image with each pool thread */
+	JAVA_BLUR,
+	/** Loading the native library */
+	NATIVE_LIBRARY,
+	/** The first native blur of a small image with each pool thread */
+	NATIVE_BLUR,
+	/** Creating the RenderScript context */
+	RENDERSCRIPT,
+	/** Creating the blur script for the calling thread and its first blur of a small image */
+	RENDERSCRIPT_BLUR,
+}
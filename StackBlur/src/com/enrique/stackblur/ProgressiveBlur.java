@@ -0,0 +1,190 @@
+package com.enrique.stackblur;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Blurs for interactive radius changes, such as dragging a SeekBar.
+ *
+ * Requests are coalesced: a single worker on the blur executor always picks up the newest
+ * one, blurs a small preview of it and hands that to the listener. It then lets its thread
+ * go, and is started again once the refine delay has passed since the request; if no newer
+ * request has arrived by then, it blurs the full image. A newer request starts the worker
+ * straight away, and cancels a full blur at the next chunk of lines.
+ */
+final class ProgressiveBlur {
+	private final StackBlurManager _manager;
+	private final BlurProcess _blurProcess;
+	private final Object _lock = new Object();
+	private final Runnable _drain = new Runnable() {
+		@Override
+		public void run() {
+			boolean finished = false;
+			try {
+				drain();
+				finished = true;
+			} finally {
+				if (!finished) {
+					synchronized (_lock) {
+						_running = false;
+					}
+				}
+			}
+		}
+	};
+
+	/**
+	 * Bumped by every request and by cancel(); work for an older generation is stale
+	 */
+	private volatile int _generation;
+	/**
+	 * The newest generation which needs no more work
+	 */
+	private int _finished;
+	/** Whether the worker is queued or running; not while it waits for the refine delay */
+	private boolean _running;
+	/** The generation whose preview has been delivered */
+	private int _previewed;
+	/** Bumped whenever the worker is started, so a delayed start that is no longer needed does nothing */
+	private int _starts;
+	private long _requestedAt;
+	private int _radius;
+	private ColorTransform _transform;
+	private ProgressiveBlurListener _listener;
+	private float _previewScale = 0.25f;
+	private long _refineDelayMillis = 150;
+
+	ProgressiveBlur(StackBlurManager manager, BlurProcess blurProcess) {
+		_manager = manager;
+		_blurProcess = blurProcess;
+	}
+
+	void request(int radius, ColorTransform transform, ProgressiveBlurListener listener) {
+		synchronized (_lock) {
+			_radius = radius;
+			_transform = transform;
+			_listener = listener;
+			_requestedAt = System.nanoTime();
+			_generation++;
+			startLocked();
+		}
+	}
+
+	/**
+	 * Queue the worker unless it is already queued or running. Must hold _lock.
+	 */
+	private void startLocked() {
+		if (!_running) {
+			_running = true;
+			_starts++;
+			// Left to the next request if the executor refuses it
+			if (!BlurExecutor.execute(_drain, BlurPriority.NORMAL)) {
+				_running = false;
+			}
+		}
+	}
+
+	void cancel() {
+		synchronized (_lock) {
+			_generation++;
+			_finished = _generation;
+		}
+	}
+
+	void setPreviewScale(float scale) {
+		synchronized (_lock) {
+			_previewScale = scale;
+		}
+	}
+
+	void setRefineDelay(long millis) {
+		synchronized (_lock) {
+			_refineDelayMillis = millis;
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			final int generation;
+			int radius;
+			ColorTransform transform;
+			ProgressiveBlurListener listener;
+			float previewScale;
+			boolean preview;
+			synchronized (_lock) {
+				if (_finished == _generation) {
+					_running = false;
+					return;
+				}
+				generation = _generation;
+				radius = _radius;
+				transform = _transform;
+				listener = _listener;
+				previewScale = _previewScale;
+				preview = _previewed != generation;
+				_previewed = generation;
+			}
+
+			if (preview && previewScale < 1) {
+				Bitmap image = _manager.getImage();
+				int width = Math.max(1, Math.round(image.getWidth() * previewScale));
+				int height = Math.max(1, Math.round(image.getHeight() * previewScale));
+				listener.onPreview(radius, BlurService.blur(image, _blurProcess, width, height, radius,
+						_manager.params(transform, null), BlurStrategy.DOWNSCALED));
+			}
+			synchronized (_lock) {
+				if (_generation != generation) {
+					continue;
+				}
+				long remaining = _requestedAt + _refineDelayMillis * 1000000L - System.nanoTime();
+				if (remaining > 0) {
+					// Let the thread go until the radius has settled
+					_running = false;
+					final int starts = _starts;
+					BlurExecutor.schedule(new Runnable() {
+						@Override
+						public void run() {
+							synchronized (_lock) {
+								if (_starts == starts) {
+									startLocked();
+								}
+							}
+						}
+					}, remaining);
+					return;
+				}
+			}
+
+			BlurParams params = _manager.params(transform, new BlurCheckpoint() {
+				@Override
+				public void check() {
+					if (_generation != generation) {
+						throw new CancellationException();
+					}
+				}
+			});
+			Bitmap result;
+			try {
+				result = BlurService.blur(_manager.getImage(), _blurProcess, radius, params,
+						_manager.getMemoryBudget());
+			} catch (CancellationException e) {
+				continue;
+			}
+			boolean stale;
+			synchronized (_lock) {
+				stale = _generation != generation;
+				if (!stale) {
+					_finished = generation;
+					_manager.setResult(result, params.strategy);
+				}
+			}
+			if (stale) {
+				// A newer request arrived after the last checkpoint, and nobody else has seen this one
+				result.recycle();
+				continue;
+			}
+			listener.onRefined(radius, result);
+		}
+	}
+}
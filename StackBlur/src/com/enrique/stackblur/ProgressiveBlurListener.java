@@ -0,0 +1,19 @@
+package com.enrique.stackblur;
+
+import android.graphics.Bitmap;
+
+/**
+ * Receives the results of {@link StackBlurManager#processProgressive}.
+ * Both methods are called on a blur thread; post to the UI thread before touching views.
+ */
+public interface ProgressiveBlurListener {
+	/**
+	 * A quick, low resolution blur at radius. Scale it up to display it.
+	 */
+	void onPreview(int radius, Bitmap preview);
+
+	/**
+	 * The full resolution blur at radius, once it stopped changing
+	 */
+	void onRefined(int radius, Bitmap result);
+}
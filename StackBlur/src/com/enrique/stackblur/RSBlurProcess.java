@@ -22,24 +22,47 @@ class RSBlurProcess implements BlurProcess {
 	public RSBlurProcess(Context context) {
 		this.context = context.getApplicationContext();
 		if (RS == null) {
-			RS = RenderScript.create(this.context);
+			synchronized (RSBlurProcess.class) {
+				if (RS == null) {
+					RS = RenderScript.create(this.context);
+				}
+			}
 		}
 	}
 
 	@Override
-	public void blur(Bitmap src, Bitmap dst, float radius) {
+	public void blur(Bitmap src, Bitmap dst, float radius, BlurParams params) {
 		if (!dst.isMutable()) {
 			throw new IllegalArgumentException("dst must be mutable");
 		}
 		if (radius < 0) {
 			throw new IllegalArgumentException("radius must be >= 0");
 		}
+		if (params.verticalRadius(radius) != radius) {
+			// The intrinsic only blurs both axes by the same radius
+			BlurService.nativeProcess().blur(src, dst, radius, params);
+			return;
+		}
+		ColorTransform transform = params.transform;
+		BlurStats stats = params.stats;
+		long time = 0;
+		if (stats != null) {
+			stats.backend = "RenderScript";
+			time = System.nanoTime();
+		}
 		if (radius == 0) {
 			if (src != dst) {
 				Canvas canvas = new Canvas(dst);
 				Rect rect = new Rect(0, 0, dst.getWidth(), dst.getHeight());
 				canvas.drawBitmap(src, null, rect, null);
 			}
+			if (transform != null) {
+				applyTransform(dst, transform);
+			}
+			if (stats != null) {
+				stats.addPhase(BlurPhase.COPY, System.nanoTime() - time);
+				stats.bytesTouched += 4L * src.getWidth() * src.getHeight() + 4L * dst.getWidth() * dst.getHeight();
+			}
 			return;
 		}
 		ScriptIntrinsicBlur blur = _blur.get();
@@ -47,9 +70,12 @@ class RSBlurProcess implements BlurProcess {
 			blur = ScriptIntrinsicBlur.create(RS, Element.U8_4(RS));
 			_blur.set(blur);
 		}
-		Bitmap scaleFrom = src;
+		time = mark(stats, BlurPhase.RS_SETUP, time);
+		int baseWidth = src.getWidth();
+		int baseHeight = src.getHeight();
 		if (dst.getWidth() < src.getWidth() || dst.getHeight() < src.getHeight()) {
-			scaleFrom = dst;
+			baseWidth = dst.getWidth();
+			baseHeight = dst.getHeight();
 			radius *= Math.min((float) dst.getWidth() / src.getWidth(), (float) dst.getHeight() / src.getHeight());
 		}
 
@@ -58,9 +84,12 @@ class RSBlurProcess implements BlurProcess {
 			radius /= 2;
 			scale /= 2;
 		}
-		int w = (int) (scaleFrom.getWidth() * scale);
-		int h = (int) (scaleFrom.getHeight() * scale);
-		Bitmap intermediateIn = Bitmap.createScaledBitmap(scaleFrom, w, h, true);
+		int w = Math.max(1, (int) (baseWidth * scale));
+		int h = Math.max(1, (int) (baseHeight * scale));
+		Bitmap intermediateIn = Bitmap.createScaledBitmap(src, w, h, true);
+		time = mark(stats, BlurPhase.COPY, time);
+		// The intrinsic can't be interrupted, so check before and after it instead
+		params.check();
 		Bitmap intermediateOut;
 		if (intermediateIn == dst || dst.getWidth() != w || dst.getHeight() != h) {
 			intermediateOut = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
@@ -78,6 +107,7 @@ class RSBlurProcess implements BlurProcess {
 
 		Allocation inAllocation = Allocation.createFromBitmap(RS, intermediateIn);
 		Allocation outAllocation = Allocation.createFromBitmap(RS, intermediateOut);
+		time = mark(stats, BlurPhase.RS_SETUP, time);
 
 		blur.setInput(inAllocation);
 		blur.setRadius(radius);
@@ -87,7 +117,11 @@ class RSBlurProcess implements BlurProcess {
 
 		inAllocation.destroy();
 		outAllocation.destroy();
+		time = mark(stats, BlurPhase.RS_BLUR, time);
+		params.check();
 
+		// Restoring the alpha already walks every row, so apply the transform there too
+		boolean transformHere = transform != null && intermediateOut == dst;
 		if (alphaCopy != null) {
 			int[] alphaLine = new int[w];
 			int[] colorLine = new int[w];
@@ -97,13 +131,21 @@ class RSBlurProcess implements BlurProcess {
 				for(int x = 0; x < w; x++) {
 					colorLine[x] = (colorLine[x] & 0xFFFFFF) | (alphaLine[x] & 0xFF000000);
 				}
+				if (transformHere) {
+					transform.apply(colorLine, w);
+				}
 				intermediateOut.setPixels(colorLine, 0, w, 0, y, w, 1);
 			}
+		} else if (transformHere) {
+			applyTransform(dst, transform);
 		}
 		if (intermediateOut != dst) {
 			Canvas canvas = new Canvas(dst);
 			Rect rect = new Rect(0, 0, dst.getWidth(), dst.getHeight());
 			canvas.drawBitmap(intermediateOut, null, rect, null);
+			if (transform != null) {
+				applyTransform(dst, transform);
+			}
 			if (intermediateOut != src) {
 				intermediateOut.recycle();
 			}
@@ -114,5 +156,52 @@ class RSBlurProcess implements BlurProcess {
 		if (alphaCopy != null && alphaCopy != intermediateIn) {
 			alphaCopy.recycle();
 		}
+		if (stats != null) {
+			mark(stats, BlurPhase.COPY, time);
+			// Scaling in, the allocation copies in and out, and writing dst
+			stats.bytesTouched += 4L * src.getWidth() * src.getHeight() + 16L * w * h
+					+ 4L * dst.getWidth() * dst.getHeight();
+		}
+	}
+
+	@Override
+	public long estimateScratchBytes(int srcWidth, int srcHeight, int dstWidth, int dstHeight, float radius) {
+		long w = srcWidth;
+		long h = srcHeight;
+		if (dstWidth < srcWidth || dstHeight < srcHeight) {
+			w = dstWidth;
+			h = dstHeight;
+			radius *= Math.min((float) dstWidth / srcWidth, (float) dstHeight / srcHeight);
+		}
+		while (radius > 25) {
+			radius /= 2;
+			w /= 2;
+			h /= 2;
+		}
+		// The scaled input and output bitmaps, their two allocations, and a copy of the alpha
+		return 4 * (4 * w * h) + w * h;
+	}
+
+	/**
+	 * Adds the time since start to the phase, and returns the current time
+	 */
+	private static long mark(BlurStats stats, BlurPhase phase, long start) {
+		if (stats == null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		stats.addPhase(phase, now - start);
+		return now;
+	}
+
+	private static void applyTransform(Bitmap bitmap, ColorTransform transform) {
+		int w = bitmap.getWidth();
+		int h = bitmap.getHeight();
+		int[] line = new int[w];
+		for (int y = 0; y < h; y++) {
+			bitmap.getPixels(line, 0, w, 0, y, w, 1);
+			transform.apply(line, w);
+			bitmap.setPixels(line, 0, w, 0, y, w, 1);
+		}
 	}
 }
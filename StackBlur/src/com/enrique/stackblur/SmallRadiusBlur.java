@@ -0,0 +1,138 @@
+package com.enrique.stackblur;
+
+/**
+ * Fixed-tap stack blur for radius 1 to 4.
+ *
+ * For these radii the stack blur is just a 3, 5, 7 or 9 tap triangle filter
+ * with weights (radius + 1 - |k|), so it is computed directly instead of
+ * maintaining a stack. The output is identical to the general kernel in
+ * {@link PackedStackBlur}, including the rounding and the clamping at the
+ * ends of the line.
+ *
+ * Red and blue (and alpha and green) are summed as two 16 bit lanes of one
+ * int. The largest sum is 25 * 255, so a lane never overflows.
+ */
+final class SmallRadiusBlur {
+	static final int MAX_RADIUS = 4;
+
+	private static final int MASK = 0x00FF00FF;
+
+	private SmallRadiusBlur() {
+	}
+
+	/**
+	 * Blur the first len pixels of in into out
+	 * @param blurAlpha if false, the alpha of each pixel is copied unchanged
+	 */
+	static void blurLine(int[] in, int[] out, int len, int radius, boolean blurAlpha) {
+		int edge = Math.min(radius, len);
+		for (int i = 0; i < edge; i++) {
+			out[i] = edgePixel(in, len, i, radius, blurAlpha);
+		}
+		switch (radius) {
+			case 1: blur3(in, out, len, blurAlpha); break;
+			case 2: blur5(in, out, len, blurAlpha); break;
+			case 3: blur7(in, out, len, blurAlpha); break;
+			case 4: blur9(in, out, len, blurAlpha); break;
+			default: throw new IllegalArgumentException("radius must be between 1 and " + MAX_RADIUS);
+		}
+		for (int i = Math.max(edge, len - radius); i < len; i++) {
+			out[i] = edgePixel(in, len, i, radius, blurAlpha);
+		}
+	}
+
+	private static void blur3(int[] in, int[] out, int len, boolean blurAlpha) {
+		for (int i = 1, end = len - 1; i < end; i++) {
+			int p0 = in[i - 1], p1 = in[i], p2 = in[i + 1];
+			int rb = (p0 & MASK) + ((p1 & MASK) << 1) + (p2 & MASK);
+			int ag = ((p0 >>> 8) & MASK) + (((p1 >>> 8) & MASK) << 1) + ((p2 >>> 8) & MASK);
+			rb = ((rb + 0x00020002) >>> 2) & MASK;
+			ag = ((ag + 0x00020002) >>> 2) & MASK;
+			out[i] = pack(rb, ag, p1, blurAlpha);
+		}
+	}
+
+	private static void blur5(int[] in, int[] out, int len, boolean blurAlpha) {
+		for (int i = 2, end = len - 2; i < end; i++) {
+			int p0 = in[i - 2], p1 = in[i - 1], p2 = in[i], p3 = in[i + 1], p4 = in[i + 2];
+			int rb = (p0 & MASK) + (p4 & MASK) + 2 * ((p1 & MASK) + (p3 & MASK)) + 3 * (p2 & MASK);
+			int ag = ((p0 >>> 8) & MASK) + ((p4 >>> 8) & MASK)
+					+ 2 * (((p1 >>> 8) & MASK) + ((p3 >>> 8) & MASK)) + 3 * ((p2 >>> 8) & MASK);
+			rb = div9(rb + 0x00040004);
+			ag = div9(ag + 0x00040004);
+			out[i] = pack(rb, ag, p2, blurAlpha);
+		}
+	}
+
+	private static void blur7(int[] in, int[] out, int len, boolean blurAlpha) {
+		for (int i = 3, end = len - 3; i < end; i++) {
+			int p0 = in[i - 3], p1 = in[i - 2], p2 = in[i - 1], p3 = in[i];
+			int p4 = in[i + 1], p5 = in[i + 2], p6 = in[i + 3];
+			int rb = (p0 & MASK) + (p6 & MASK) + 2 * ((p1 & MASK) + (p5 & MASK))
+					+ 3 * ((p2 & MASK) + (p4 & MASK)) + 4 * (p3 & MASK);
+			int ag = ((p0 >>> 8) & MASK) + ((p6 >>> 8) & MASK) + 2 * (((p1 >>> 8) & MASK) + ((p5 >>> 8) & MASK))
+					+ 3 * (((p2 >>> 8) & MASK) + ((p4 >>> 8) & MASK)) + 4 * ((p3 >>> 8) & MASK);
+			rb = ((rb + 0x00080008) >>> 4) & MASK;
+			ag = ((ag + 0x00080008) >>> 4) & MASK;
+			out[i] = pack(rb, ag, p3, blurAlpha);
+		}
+	}
+
+	private static void blur9(int[] in, int[] out, int len, boolean blurAlpha) {
+		for (int i = 4, end = len - 4; i < end; i++) {
+			int p0 = in[i - 4], p1 = in[i - 3], p2 = in[i - 2], p3 = in[i - 1], p4 = in[i];
+			int p5 = in[i + 1], p6 = in[i + 2], p7 = in[i + 3], p8 = in[i + 4];
+			int rb = (p0 & MASK) + (p8 & MASK) + 2 * ((p1 & MASK) + (p7 & MASK))
+					+ 3 * ((p2 & MASK) + (p6 & MASK)) + 4 * ((p3 & MASK) + (p5 & MASK)) + 5 * (p4 & MASK);
+			int ag = ((p0 >>> 8) & MASK) + ((p8 >>> 8) & MASK) + 2 * (((p1 >>> 8) & MASK) + ((p7 >>> 8) & MASK))
+					+ 3 * (((p2 >>> 8) & MASK) + ((p6 >>> 8) & MASK)) + 4 * (((p3 >>> 8) & MASK) + ((p5 >>> 8) & MASK))
+					+ 5 * ((p4 >>> 8) & MASK);
+			rb = div25(rb + 0x000C000C);
+			ag = div25(ag + 0x000C000C);
+			out[i] = pack(rb, ag, p4, blurAlpha);
+		}
+	}
+
+	/**
+	 * Divide both 16 bit lanes by 9, exact for lanes up to 9 * 255 + 4
+	 */
+	private static int div9(int lanes) {
+		return (((lanes >>> 16) * 7282) >>> 16 << 16) | (((lanes & 0xFFFF) * 7282) >>> 16);
+	}
+
+	/**
+	 * Divide both 16 bit lanes by 25, exact for lanes up to 25 * 255 + 12
+	 */
+	private static int div25(int lanes) {
+		return (((lanes >>> 16) * 41944) >>> 20 << 16) | (((lanes & 0xFFFF) * 41944) >>> 20);
+	}
+
+	private static int pack(int rb, int ag, int center, boolean blurAlpha) {
+		if (blurAlpha) {
+			return (ag << 8) | rb;
+		}
+		return (center & 0xFF000000) | ((ag & 0xFF) << 8) | rb;
+	}
+
+	/**
+	 * The filter evaluated one channel at a time, clamping reads to the line
+	 */
+	private static int edgePixel(int[] in, int len, int i, int radius, boolean blurAlpha) {
+		int divSum = (radius + 1) * (radius + 1);
+		int sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+		for (int k = -radius; k <= radius; k++) {
+			int idx = i + k;
+			int inputValue = in[idx < 0 ? 0 : idx >= len ? len - 1 : idx];
+			int weight = radius + 1 - Math.abs(k);
+			sumA += (inputValue >>> 24) * weight;
+			sumR += ((inputValue >>> 16) & 0xFF) * weight;
+			sumG += ((inputValue >>> 8) & 0xFF) * weight;
+			sumB += (inputValue & 0xFF) * weight;
+		}
+		int a = blurAlpha ? (sumA + divSum / 2) / divSum : in[i] >>> 24;
+		int r = (sumR + divSum / 2) / divSum;
+		int g = (sumG + divSum / 2) / divSum;
+		int b = (sumB + divSum / 2) / divSum;
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+}
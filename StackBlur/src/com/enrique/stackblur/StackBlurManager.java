@@ -28,18 +28,22 @@ package com.enrique.stackblur;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.support.v8.renderscript.RSRuntimeException;
+import android.graphics.BitmapFactory;
 import android.util.Log;
 
-import java.io.FileOutputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Future;
 
 public class StackBlurManager {
-	static final int EXECUTOR_THREADS = Runtime.getRuntime().availableProcessors();
-	static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(EXECUTOR_THREADS);
+	static volatile BlurMetricsListener metricsListener;
 
-	private static volatile boolean hasRS = true;
+	private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+	private static final int DEFAULT_QUALITY = 90;
 
 	/**
 	 * Original image
@@ -49,20 +53,51 @@ public class StackBlurManager {
 	/**
 	 * Most recent result of blurring
 	 */
-	private Bitmap _result;
+	private volatile Bitmap _result;
 
 	/**
 	 * Method of blurring
 	 */
 	private final BlurProcess _blurProcess;
 
+	/**
+	 * Bytes a single blur may allocate, including the result
+	 */
+	private volatile long _memoryBudget = Long.MAX_VALUE;
+
+	/**
+	 * How the most recent blur fit into the memory budget
+	 */
+	private volatile BlurStrategy _lastStrategy;
+
+	/**
+	 * Scheduling of this manager's blurs
+	 */
+	private volatile BlurPriority _priority = BlurPriority.NORMAL;
+
+	/**
+	 * Time allowed for each blur, 0 for none
+	 */
+	private volatile long _deadlineMillis;
+
+	/**
+	 * Whether colors are blurred in linear light
+	 */
+	private volatile boolean _linearLight;
+
+	/**
+	 * Coalesces the requests of processProgressive
+	 */
+	private final ProgressiveBlur _progressive;
+
 	/**
 	 * Constructor method (basic initialization and construction of the pixel array)
 	 * @param image The image that will be analyed
 	 */
 	public StackBlurManager(Bitmap image) {
 		_image = image;
-		_blurProcess = new JavaBlurProcess();
+		_blurProcess = BlurService.javaProcess();
+		_progressive = new ProgressiveBlur(this, _blurProcess);
 	}
 
 	/**
@@ -70,9 +105,246 @@ public class StackBlurManager {
 	 * @param radius
 	 */
 	public Bitmap process(int radius) {
-		_result = Bitmap.createBitmap(_image.getWidth(), _image.getHeight(), Bitmap.Config.ARGB_8888);
-		_blurProcess.blur(_image, _result, radius);
-		return _result;
+		return process(radius, null);
+	}
+
+	/**
+	 * Process the image on the given radius, applying a color transform to the result
+	 * in the same pass
+	 * @param radius
+	 * @param transform the color operation to apply, or null
+	 */
+	public Bitmap process(int radius, ColorTransform transform) {
+		return blur(_blurProcess, radius, params(transform, null));
+	}
+
+	/**
+	 * Process the image on a fractional radius. The blur grows smoothly between whole
+	 * radii instead of being rounded, at the same cost, so an animated radius doesn't
+	 * step and needs no cross-fade.
+	 * @param radius
+	 */
+	public Bitmap process(float radius) {
+		return process(radius, null);
+	}
+
+	/**
+	 * Process the image on a fractional radius, applying a color transform to the result
+	 * @param transform the color operation to apply, or null
+	 * @see #process(float)
+	 */
+	public Bitmap process(float radius, ColorTransform transform) {
+		return blur(_blurProcess, radius, params(transform, null));
+	}
+
+	/**
+	 * Process the image with a different radius along each axis, for streaks or fades
+	 * along one direction. An axis with a radius of 0 is not blurred at all, which
+	 * halves the cost.
+	 * @param horizontalRadius the radius of the blur along the rows
+	 * @param verticalRadius the radius of the blur along the columns
+	 */
+	public Bitmap process(int horizontalRadius, int verticalRadius) {
+		return process(horizontalRadius, verticalRadius, null);
+	}
+
+	/**
+	 * Process the image with a different radius along each axis, applying a color transform
+	 * to the result in the same pass
+	 * @param transform the color operation to apply, or null
+	 * @see #process(int, int)
+	 */
+	public Bitmap process(int horizontalRadius, int verticalRadius, ColorTransform transform) {
+		return blur(_blurProcess, horizontalRadius, axisParams(verticalRadius, transform));
+	}
+
+	/**
+	 * Process the image on several radii at once, for example the keyframes of an
+	 * animation or a cross-fade. Each row of the image is read once and blurred by every
+	 * radius from the same line, instead of being read again for each of them.
+	 * The results are not kept as {@link #returnBlurredImage()}. They all have the same
+	 * size, downscaled together if they would not fit the memory budget.
+	 * @param radii the radius of each result
+	 * @return a new bitmap for each radius, in the same order
+	 */
+	public Bitmap[] processRadii(int[] radii) {
+		return processRadii(radii, null);
+	}
+
+	/**
+	 * Process the image on several radii at once, applying a color transform to each result
+	 * @param transform the color operation to apply, or null
+	 * @see #processRadii(int[])
+	 */
+	public Bitmap[] processRadii(int[] radii, ColorTransform transform) {
+		return blur(BlurService.javaProcess(), radii, params(transform, null));
+	}
+
+	/**
+	 * Blur in the background for a radius which changes interactively, for example
+	 * while dragging a SeekBar. Returns immediately.
+	 *
+	 * Only the newest request is worked on. The listener first receives a quick,
+	 * low resolution preview, and once the radius has not changed for the refine delay,
+	 * the full resolution result, which also becomes {@link #returnBlurredImage()}.
+	 * A newer request cancels a full resolution blur that is still running.
+	 *
+	 * @see #setPreviewScale(float)
+	 * @see #setRefineDelay(long)
+	 */
+	public void processProgressive(int radius, ProgressiveBlurListener listener) {
+		processProgressive(radius, null, listener);
+	}
+
+	/**
+	 * Blur progressively, applying a color transform to the previews and the result
+	 * @param transform the color operation to apply, or null
+	 * @see #processProgressive(int, ProgressiveBlurListener)
+	 */
+	public void processProgressive(int radius, ColorTransform transform, ProgressiveBlurListener listener) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+		if (listener == null) {
+			throw new IllegalArgumentException("listener must not be null");
+		}
+		_progressive.request(radius, transform, listener);
+	}
+
+	/**
+	 * Drop any pending progressive request and stop its blur; no more results are delivered
+	 */
+	public void cancelProgressive() {
+		_progressive.cancel();
+	}
+
+	/**
+	 * Set the size of progressive previews relative to the image. 1 skips the preview.
+	 * @param scale between 0 and 1, 0.25 by default
+	 */
+	public void setPreviewScale(float scale) {
+		if (scale <= 0 || scale > 1) {
+			throw new IllegalArgumentException("scale must be > 0 and <= 1");
+		}
+		_progressive.setPreviewScale(scale);
+	}
+
+	/**
+	 * Set how long the radius must stay unchanged before a progressive blur is refined
+	 * to full resolution
+	 * @param millis 150 by default
+	 */
+	public void setRefineDelay(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("millis must be >= 0");
+		}
+		_progressive.setRefineDelay(millis);
+	}
+
+	/**
+	 * Returns a blurred image whose tiles are only blurred when they are requested,
+	 * for showing part of a large image. Uses 256 pixel tiles and caches up to 16MB of them.
+	 * @see TiledBlurImage
+	 */
+	public TiledBlurImage processTiled(int radius) {
+		return processTiled(radius, 256, 16L * 1024 * 1024);
+	}
+
+	/**
+	 * Returns a blurred image whose tiles are only blurred when they are requested
+	 * @param tileSize the width and height of a tile in pixels
+	 * @param cacheBytes how many bytes of blurred tiles to keep
+	 */
+	public TiledBlurImage processTiled(int radius, int tileSize, long cacheBytes) {
+		return new TiledBlurImage(_image, radius, tileSize, cacheBytes, _linearLight);
+	}
+
+	/**
+	 * Returns blurs of the image at any radius up to maxRadius, at a cost per blur which
+	 * barely depends on the radius, for radii which change every frame
+	 * @see BlurPyramid
+	 */
+	public BlurPyramid processPyramid(int maxRadius) {
+		return new BlurPyramid(_image, maxRadius);
+	}
+
+	/**
+	 * Set how urgently this manager's blurs are needed. Urgent blurs run ahead of
+	 * everything else queued on the library's pool, and between chunks of lines a
+	 * background blur runs any queued pieces of an urgent blur on its own thread
+	 * before carrying on, so urgent work is never left waiting for a free thread.
+	 * @param priority {@link BlurPriority#NORMAL} by default
+	 */
+	public void setPriority(BlurPriority priority) {
+		if (priority == null) {
+			throw new IllegalArgumentException("priority must not be null");
+		}
+		_priority = priority;
+	}
+
+	public BlurPriority getPriority() {
+		return _priority;
+	}
+
+	/**
+	 * Give each blur a deadline, counted from when it is requested. Among blurs of the same
+	 * priority, the earliest deadline runs first, and a blur which finishes late is reported
+	 * through {@link BlurStats#getLateNanos()}.
+	 * @param millis the time allowed for a blur, 0 (the default) for no deadline
+	 */
+	public void setDeadline(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("millis must be >= 0");
+		}
+		_deadlineMillis = millis;
+	}
+
+	public long getDeadline() {
+		return _deadlineMillis;
+	}
+
+	/**
+	 * Blur the colors in linear light instead of averaging the sRGB values directly,
+	 * which keeps bright highlights and the edges between saturated colors from
+	 * darkening. Colors go through lookup tables on the way in and out of each pass,
+	 * so it costs little. RenderScript blurs ignore it.
+	 * @param linearLight false by default
+	 */
+	public void setLinearLight(boolean linearLight) {
+		_linearLight = linearLight;
+	}
+
+	public boolean isLinearLight() {
+		return _linearLight;
+	}
+
+	/**
+	 * Limit the memory a single blur may allocate: the result, intermediate bitmaps
+	 * and per-thread scratch buffers. When a blur would not fit, RenderScript falls
+	 * back to the streaming native blur, and then the resolution of the result is
+	 * halved until it fits. A blur which runs out of memory is also retried at half
+	 * the resolution instead of throwing OutOfMemoryError.
+	 *
+	 * @param bytes the budget, Long.MAX_VALUE (the default) for no limit
+	 * @see #getLastStrategy()
+	 */
+	public void setMemoryBudget(long bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException("bytes must be > 0");
+		}
+		_memoryBudget = bytes;
+	}
+
+	public long getMemoryBudget() {
+		return _memoryBudget;
+	}
+
+	/**
+	 * Returns how the most recent blur was fit into the memory budget,
+	 * or null if nothing has been blurred yet
+	 */
+	public BlurStrategy getLastStrategy() {
+		return _lastStrategy;
 	}
 
 	/**
@@ -89,13 +361,38 @@ public class StackBlurManager {
 	 */
 	public void saveIntoFile(String path) {
 		try {
-			FileOutputStream out = new FileOutputStream(path);
-			_result.compress(Bitmap.CompressFormat.PNG, 90, out);
+			BitmapWriter.write(_result, new File(path), Bitmap.CompressFormat.PNG, DEFAULT_QUALITY);
 		} catch (Exception e) {
-			e.printStackTrace();
+			if (BuildConfig.DEBUG) {
+				Log.w("StackBlurManager", "Could not save the image to " + path, e);
+			}
 		}
 	}
 
+	/**
+	 * Save the image as a PNG on a background thread
+	 * @see #saveIntoFileAsync(String, Bitmap.CompressFormat, int)
+	 */
+	public Future<File> saveIntoFileAsync(String path) {
+		return saveIntoFileAsync(path, Bitmap.CompressFormat.PNG, DEFAULT_QUALITY);
+	}
+
+	/**
+	 * Save the image on a background thread, through a buffered stream into a temporary
+	 * file which is renamed to path once complete. A lossy format such as JPEG or WebP
+	 * at a low quality is much faster to encode and smaller, which suits placeholders.
+	 * Don't recycle the blurred image until the future completes.
+	 * @param quality 0 to 100, ignored by PNG
+	 * @return completes with the file, or fails with the IOException
+	 */
+	public Future<File> saveIntoFileAsync(String path, Bitmap.CompressFormat format, int quality) {
+		Bitmap result = _result;
+		if (result == null) {
+			throw new IllegalStateException("Nothing has been blurred yet");
+		}
+		return BitmapWriter.writeAsync(result, new File(path), format, quality);
+	}
+
 	/**
 	 * Returns the original image as a bitmap
 	 * @return the original bitmap image
@@ -108,10 +405,69 @@ public class StackBlurManager {
 	 * Process the image using a native library
 	 */
 	public Bitmap processNatively(int radius) {
-		NativeBlurProcess blur = new NativeBlurProcess();
-		_result = Bitmap.createBitmap(_image.getWidth(), _image.getHeight(), Bitmap.Config.ARGB_8888);
-		blur.blur(_image, _result, radius);
-		return _result;
+		return processNatively(radius, null);
+	}
+
+	/**
+	 * Process the image using a native library, applying a color transform to the result
+	 * @param transform the color operation to apply, or null
+	 */
+	public Bitmap processNatively(int radius, ColorTransform transform) {
+		return blur(BlurService.nativeProcess(), radius, params(transform, null));
+	}
+
+	/**
+	 * Process the image using a native library on a fractional radius
+	 * @see #process(float)
+	 */
+	public Bitmap processNatively(float radius) {
+		return processNatively(radius, null);
+	}
+
+	/**
+	 * Process the image using a native library on a fractional radius, applying a color
+	 * transform to the result
+	 * @param transform the color operation to apply, or null
+	 * @see #process(float)
+	 */
+	public Bitmap processNatively(float radius, ColorTransform transform) {
+		return blur(BlurService.nativeProcess(), radius, params(transform, null));
+	}
+
+	/**
+	 * Process the image using a native library, with a different radius along each axis
+	 * @see #process(int, int)
+	 */
+	public Bitmap processNatively(int horizontalRadius, int verticalRadius) {
+		return processNatively(horizontalRadius, verticalRadius, null);
+	}
+
+	/**
+	 * Process the image using a native library, with a different radius along each axis,
+	 * applying a color transform to the result
+	 * @param transform the color operation to apply, or null
+	 * @see #process(int, int)
+	 */
+	public Bitmap processNatively(int horizontalRadius, int verticalRadius, ColorTransform transform) {
+		return blur(BlurService.nativeProcess(), horizontalRadius, axisParams(verticalRadius, transform));
+	}
+
+	/**
+	 * Process the image using a native library on several radii at once
+	 * @see #processRadii(int[])
+	 */
+	public Bitmap[] processRadiiNatively(int[] radii) {
+		return processRadiiNatively(radii, null);
+	}
+
+	/**
+	 * Process the image using a native library on several radii at once, applying a
+	 * color transform to each result
+	 * @param transform the color operation to apply, or null
+	 * @see #processRadii(int[])
+	 */
+	public Bitmap[] processRadiiNatively(int[] radii, ColorTransform transform) {
+		return blur(BlurService.nativeProcess(), radii, params(transform, null));
 	}
 
 	/**
@@ -121,26 +477,260 @@ public class StackBlurManager {
 	 * @param radius
 	 */
 	public Bitmap processRenderScript(Context context, float radius) {
-		BlurProcess blurProcess;
-		// The renderscript support library doesn't have .so files for ARMv6.
-		// Remember if there is an error creating the renderscript context,
-		// and fall back to NativeBlurProcess
-		if(hasRS) {
-			try {
-				blurProcess = new RSBlurProcess(context);
-			} catch (RSRuntimeException e) {
-				if(BuildConfig.DEBUG) {
-					Log.i("StackBlurManager", "Falling back to Native Blur", e);
-				}
-				blurProcess = new NativeBlurProcess();
-				hasRS = false;
+		return processRenderScript(context, radius, null);
+	}
+
+	/**
+	 * Process the image using renderscript if possible, applying a color transform to the result
+	 * @param context renderscript requires an android context
+	 * @param radius
+	 * @param transform the color operation to apply, or null
+	 */
+	public Bitmap processRenderScript(Context context, float radius, ColorTransform transform) {
+		return blur(BlurService.renderScriptProcess(context), radius, params(transform, null));
+	}
+
+	/**
+	 * Blur pixels held in a ByteBuffer, such as a GL readback or the output of a decoder,
+	 * with the Java code, without copying them into a Bitmap. If the sizes differ, src is
+	 * resampled to the size of dst. src and dst may be the same PixelBuffer.
+	 * @param transform the color operation to apply, or null
+	 */
+	public static void processBuffer(PixelBuffer src, PixelBuffer dst, int radius, ColorTransform transform) {
+		blurBuffer(BlurService.javaProcess(), src, dst, radius, transform);
+	}
+
+	/**
+	 * Blur pixels held in direct ByteBuffers with the native library, which works on
+	 * them in place. ARGB buffers are blurred with the Java code instead.
+	 * @param transform the color operation to apply, or null
+	 * @see #processBuffer(PixelBuffer, PixelBuffer, int, ColorTransform)
+	 */
+	public static void processBufferNatively(PixelBuffer src, PixelBuffer dst, int radius, ColorTransform transform) {
+		blurBuffer(BlurService.nativeProcess(), src, dst, radius, transform);
+	}
+
+	/**
+	 * Decode an image file straight into a blurred width x height bitmap, which is much
+	 * cheaper than decoding it in full for placeholders and backgrounds. The image is
+	 * decoded with the largest inSampleSize whose error the blur hides to within a tenth
+	 * of the contrast of the thinnest details, which for large radii is coarser than the
+	 * output itself. The image is stretched to fill the output.
+	 * @param radius the blur radius in output pixels
+	 * @throws IOException if the file cannot be read or decoded
+	 */
+	public static Bitmap decodeBlurred(String path, int width, int height, int radius) throws IOException {
+		checkDecodeSize(width, height, radius);
+		BlurMetricsListener listener = metricsListener;
+		BlurStats stats = null;
+		long start = 0;
+		if (listener != null) {
+			stats = new BlurStats(width, height, radius);
+			start = System.nanoTime();
+		}
+
+		// The file is opened again for the pixels, rather than buffering whatever the
+		// decoder reads while looking for the size
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		setSampling(options, width, height, radius);
+		Bitmap decoded;
+		InputStream in = new BufferedInputStream(new FileInputStream(path), DECODE_BUFFER_SIZE);
+		try {
+			decoded = BitmapFactory.decodeStream(in, null, options);
+		} finally {
+			in.close();
+		}
+		return blurDecoded(decoded, width, height, radius, stats, start, listener);
+	}
+
+	/**
+	 * Decode an image stream straight into a blurred width x height bitmap. The stream
+	 * is read twice, first for the size of the image, so one which does not support
+	 * mark and reset is buffered. It is not closed.
+	 * @param radius the blur radius in output pixels
+	 * @throws IOException if the stream cannot be read or decoded
+	 * @see #decodeBlurred(String, int, int, int)
+	 */
+	public static Bitmap decodeBlurred(InputStream in, int width, int height, int radius) throws IOException {
+		checkDecodeSize(width, height, radius);
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in, DECODE_BUFFER_SIZE);
+		}
+		BlurMetricsListener listener = metricsListener;
+		BlurStats stats = null;
+		long start = 0;
+		if (listener != null) {
+			stats = new BlurStats(width, height, radius);
+			start = System.nanoTime();
+		}
+
+		// Only the header is read here, but the buffer grows to whatever the decoder needs
+		in.mark(Integer.MAX_VALUE);
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeStream(in, null, options);
+		setSampling(options, width, height, radius);
+		in.reset();
+		Bitmap decoded = BitmapFactory.decodeStream(in, null, options);
+		return blurDecoded(decoded, width, height, radius, stats, start, listener);
+	}
+
+	private static void checkDecodeSize(int width, int height, int radius) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("width and height must be > 0");
+		}
+		if (radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+	}
+
+	/**
+	 * Turn options holding the bounds of the image into options for decoding it
+	 * with the coarsest sampling the blur hides
+	 */
+	private static void setSampling(BitmapFactory.Options options, int width, int height, int radius)
+			throws IOException {
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			throw new IOException("Not a decodable image");
+		}
+		options.inJustDecodeBounds = false;
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		options.inSampleSize = DecodeSampling.sampleSize(options.outWidth, options.outHeight, width, height, radius,
+				DecodeSampling.DEFAULT_MAX_ERROR);
+	}
+
+	/**
+	 * Blur the decoded image into a new width x height bitmap, and recycle it
+	 */
+	private static Bitmap blurDecoded(Bitmap decoded, int width, int height, int radius, BlurStats stats, long start,
+			BlurMetricsListener listener) throws IOException {
+		if (decoded == null) {
+			throw new IOException("Not a decodable image");
+		}
+		if (stats != null) {
+			stats.addPhase(BlurPhase.DECODE, System.nanoTime() - start);
+		}
+
+		try {
+			Bitmap result = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			// The blur takes the radius in source pixels
+			float scale = Math.min((float) decoded.getWidth() / width, (float) decoded.getHeight() / height);
+			BlurService.javaProcess().blur(decoded, result, radius * scale, new BlurParams(null, stats, null));
+			if (stats != null) {
+				stats.totalNanos = System.nanoTime() - start;
+				listener.onBlurFinished(stats);
 			}
+			return result;
+		} finally {
+			decoded.recycle();
 		}
-		else {
-			blurProcess = new NativeBlurProcess();
+	}
+
+	private static void blurBuffer(BufferBlurProcess blurProcess, PixelBuffer src, PixelBuffer dst, float radius, ColorTransform transform) {
+		BlurMetricsListener listener = metricsListener;
+		BlurStats stats = null;
+		long start = 0;
+		if (listener != null) {
+			stats = new BlurStats(dst.getWidth(), dst.getHeight(), radius);
+			start = System.nanoTime();
 		}
-		_result = Bitmap.createBitmap(_image.getWidth(), _image.getHeight(), Bitmap.Config.ARGB_8888);
-		blurProcess.blur(_image, _result, radius);
-		return _result;
+		blurProcess.blur(src, dst, radius, new BlurParams(transform, stats, null));
+		if (stats != null) {
+			stats.totalNanos = System.nanoTime() - start;
+			listener.onBlurFinished(stats);
+		}
+	}
+
+	/**
+	 * Do the work of the first blur up front: start the pool threads, load the native
+	 * library, create the RenderScript context, and blur a small image with each
+	 * backend so their code is loaded and compiled. Blocks until it is done, so call it
+	 * from a background thread at app start. A backend which cannot start is reported
+	 * rather than thrown.
+	 *
+	 * The RenderScript blur script is created for the calling thread only, and the
+	 * pool threads stop again once idle for longer than the configured timeout.
+	 * @param context to start RenderScript, or null to skip it
+	 * @return the time of each step, and which backends are available
+	 */
+	public static PrewarmReport prewarm(Context context) {
+		return BlurService.prewarm(context);
+	}
+
+	/**
+	 * Change the threads used by the Java and native blurs. Blurs already running
+	 * finish on the old executor; the library's previous pool is shut down.
+	 */
+	public static void setExecutorConfig(BlurExecutorConfig config) {
+		if (config == null) {
+			throw new IllegalArgumentException("config must not be null");
+		}
+		BlurExecutor.configure(config);
+	}
+
+	/**
+	 * Stop the threads of the library's own pool, for example when the app goes to
+	 * the background. The next blur starts them again. An executor supplied through
+	 * {@link BlurExecutorConfig.Builder#setExecutor} is left alone.
+	 */
+	public static void shutdownExecutor() {
+		BlurExecutor.shutdown();
+	}
+
+	/**
+	 * Install a listener which receives the timings of every blur, from every manager.
+	 * Pass null to stop collecting them; while no listener is installed nothing is measured.
+	 * @see BlurMetrics
+	 */
+	public static void setMetricsListener(BlurMetricsListener listener) {
+		metricsListener = listener;
+	}
+
+	/**
+	 * The options for one blur, with this manager's priority, deadline and linear light setting
+	 * @param checkpoint called between chunks of lines, or null
+	 */
+	BlurParams params(ColorTransform transform, BlurCheckpoint checkpoint) {
+		BlurParams params = new BlurParams(transform, null, checkpoint);
+		params.setPriority(_priority);
+		params.linear = _linearLight;
+		if (_deadlineMillis > 0) {
+			params.deadlineNanos = System.nanoTime() + _deadlineMillis * 1000000L;
+		}
+		return params;
+	}
+
+	private BlurParams axisParams(int verticalRadius, ColorTransform transform) {
+		if (verticalRadius < 0) {
+			throw new IllegalArgumentException("verticalRadius must be >= 0");
+		}
+		BlurParams params = params(transform, null);
+		params.verticalRadius = verticalRadius;
+		return params;
+	}
+
+	/**
+	 * Blur the image within the memory budget and keep the result
+	 */
+	Bitmap blur(BlurProcess blurProcess, float radius, BlurParams params) {
+		Bitmap result = BlurService.blur(_image, blurProcess, radius, params, _memoryBudget);
+		setResult(result, params.strategy);
+		return result;
+	}
+
+	/**
+	 * Keep a blur made elsewhere as the latest result
+	 */
+	void setResult(Bitmap result, BlurStrategy strategy) {
+		_result = result;
+		_lastStrategy = strategy;
+	}
+
+	private Bitmap[] blur(MultiRadiusBlurProcess blurProcess, int[] radii, BlurParams params) {
+		Bitmap[] results = BlurService.blur(_image, blurProcess, radii, params, _memoryBudget);
+		_lastStrategy = params.strategy;
+		return results;
 	}
 }
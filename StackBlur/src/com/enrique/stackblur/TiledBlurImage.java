@@ -0,0 +1,321 @@
+package com.enrique.stackblur;
+
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A blurred image which is only computed where it is looked at, for zoomable and
+ * pannable views of large photos.
+ *
+ * The image is split into square tiles of tileSize pixels; the tiles on the right and
+ * bottom edges may be smaller. A tile is blurred the first time it is requested, from
+ * the source region around it, padded by the radius, so the result is identical to
+ * blurring the whole image. Blurred tiles are kept in an LRU cache limited to a number
+ * of bytes, and requesting a tile blurs its neighbours in the background, ready for
+ * the next pan.
+ *
+ * All methods may be called from any thread.
+ */
+public class TiledBlurImage {
+	private final Bitmap _image;
+	private final int _radius;
+	private final int _tileSize;
+	private final int _tilesX;
+	private final int _tilesY;
+	private final long _cacheBytes;
+	private final boolean _linear;
+	private final BlurProcess _blurProcess = BlurService.javaProcess();
+
+	private final Object _lock = new Object();
+	/** Blurred tiles by index, least recently used first */
+	private final LinkedHashMap<Integer, Bitmap> _tiles = new LinkedHashMap<Integer, Bitmap>(16, 0.75f, true);
+	/** Tiles being blurred, or waiting to be blurred in the background */
+	private final HashMap<Integer, FutureTask<Bitmap>> _pending = new HashMap<Integer, FutureTask<Bitmap>>();
+	private long _bytes;
+	/** The tile most recently requested; prefetches away from it are dropped */
+	private int _lastX;
+	private int _lastY;
+
+	TiledBlurImage(Bitmap image, int radius, int tileSize, long cacheBytes, boolean linear) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+		if (tileSize <= 0) {
+			throw new IllegalArgumentException("tileSize must be > 0");
+		}
+		if (cacheBytes <= 0) {
+			throw new IllegalArgumentException("cacheBytes must be > 0");
+		}
+		_image = image;
+		_radius = radius;
+		_tileSize = tileSize;
+		_tilesX = (image.getWidth() + tileSize - 1) / tileSize;
+		_tilesY = (image.getHeight() + tileSize - 1) / tileSize;
+		_cacheBytes = cacheBytes;
+		_linear = linear;
+	}
+
+	public int getWidth() {
+		return _image.getWidth();
+	}
+
+	public int getHeight() {
+		return _image.getHeight();
+	}
+
+	public int getRadius() {
+		return _radius;
+	}
+
+	public int getTileSize() {
+		return _tileSize;
+	}
+
+	/**
+	 * Number of columns of tiles
+	 */
+	public int getTileCountX() {
+		return _tilesX;
+	}
+
+	/**
+	 * Number of rows of tiles
+	 */
+	public int getTileCountY() {
+		return _tilesY;
+	}
+
+	/**
+	 * Returns the blurred tile at column tileX and row tileY, blurring it on this thread
+	 * if it isn't cached, and starts blurring its neighbours in the background.
+	 * The tile covers the pixels from (tileX * tileSize, tileY * tileSize).
+	 */
+	public Bitmap getTile(int tileX, int tileY) {
+		checkTile(tileX, tileY);
+		FutureTask<Bitmap> task;
+		synchronized (_lock) {
+			_lastX = tileX;
+			_lastY = tileY;
+			Bitmap tile = _tiles.get(index(tileX, tileY));
+			if (tile != null) {
+				prefetchNeighbours(tileX, tileY);
+				return tile;
+			}
+			task = pendingTask(tileX, tileY);
+		}
+		// Does nothing if a background thread already started this tile
+		task.run();
+		Bitmap tile;
+		try {
+			tile = task.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+		synchronized (_lock) {
+			prefetchNeighbours(tileX, tileY);
+		}
+		return tile;
+	}
+
+	/**
+	 * Returns the blurred tile if it is already cached, without blurring anything
+	 * @return the tile or null
+	 */
+	public Bitmap peekTile(int tileX, int tileY) {
+		checkTile(tileX, tileY);
+		synchronized (_lock) {
+			return _tiles.get(index(tileX, tileY));
+		}
+	}
+
+	/**
+	 * Returns the bytes used by the cached tiles
+	 */
+	public long getCachedBytes() {
+		synchronized (_lock) {
+			return _bytes;
+		}
+	}
+
+	/**
+	 * Drop all cached tiles. Tiles which are still being blurred are kept when they finish.
+	 */
+	public void evictAll() {
+		synchronized (_lock) {
+			_tiles.clear();
+			_bytes = 0;
+		}
+	}
+
+	private void checkTile(int tileX, int tileY) {
+		if (tileX < 0 || tileX >= _tilesX || tileY < 0 || tileY >= _tilesY) {
+			throw new IllegalArgumentException("No tile at " + tileX + ", " + tileY);
+		}
+	}
+
+	private int index(int tileX, int tileY) {
+		return tileY * _tilesX + tileX;
+	}
+
+	/**
+	 * Returns the task blurring a tile, creating it if needed. Must hold _lock.
+	 */
+	private FutureTask<Bitmap> pendingTask(int tileX, int tileY) {
+		Integer key = index(tileX, tileY);
+		FutureTask<Bitmap> task = _pending.get(key);
+		if (task == null) {
+			task = new TileTask(tileX, tileY, key);
+			_pending.put(key, task);
+		}
+		return task;
+	}
+
+	/**
+	 * Queue the tiles around tileX, tileY which are neither cached nor pending. Must hold _lock.
+	 */
+	private void prefetchNeighbours(int tileX, int tileY) {
+		for (int y = Math.max(0, tileY - 1); y <= Math.min(_tilesY - 1, tileY + 1); y++) {
+			for (int x = Math.max(0, tileX - 1); x <= Math.min(_tilesX - 1, tileX + 1); x++) {
+				final Integer key = index(x, y);
+				if (_tiles.containsKey(key) || _pending.containsKey(key)) {
+					continue;
+				}
+				final int prefetchX = x;
+				final int prefetchY = y;
+				final FutureTask<Bitmap> task = pendingTask(x, y);
+				boolean queued = BlurExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						synchronized (_lock) {
+							// The view has moved on; blur it if it's requested again
+							if (Math.abs(prefetchX - _lastX) > 1 || Math.abs(prefetchY - _lastY) > 1) {
+								removePending(key, task);
+								return;
+							}
+						}
+						task.run();
+					}
+				}, BlurPriority.BACKGROUND);
+				if (!queued) {
+					// Blurred on the caller's thread if it's requested
+					removePending(key, task);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget a pending task, unless it has already been replaced. Must hold _lock.
+	 */
+	private void removePending(Integer key, FutureTask<Bitmap> task) {
+		if (_pending.get(key) == task) {
+			_pending.remove(key);
+		}
+	}
+
+	/**
+	 * Add a tile to the cache and evict the least recently used tiles over the budget.
+	 * Must hold _lock.
+	 */
+	private void put(Integer key, Bitmap tile) {
+		Bitmap old = _tiles.put(key, tile);
+		if (old != null) {
+			_bytes -= byteCount(old);
+		}
+		_bytes += byteCount(tile);
+		// Always keep the new tile and the one most recently requested,
+		// so prefetching never pushes out what is on screen
+		Integer requested = index(_lastX, _lastY);
+		Iterator<Map.Entry<Integer, Bitmap>> it = _tiles.entrySet().iterator();
+		while (_bytes > _cacheBytes && it.hasNext()) {
+			Map.Entry<Integer, Bitmap> eldest = it.next();
+			if (eldest.getKey().equals(key) || eldest.getKey().equals(requested)) {
+				continue;
+			}
+			// Evicted tiles are not recycled, a view may still be drawing them
+			_bytes -= byteCount(eldest.getValue());
+			it.remove();
+		}
+	}
+
+	private static long byteCount(Bitmap bitmap) {
+		return 4L * bitmap.getWidth() * bitmap.getHeight();
+	}
+
+	/**
+	 * Blur the source region around a tile, padded by the radius so that every pixel
+	 * of the tile sees the same neighbours as in the whole image
+	 */
+	private Bitmap blurTile(int tileX, int tileY) {
+		int width = _image.getWidth();
+		int height = _image.getHeight();
+		int left = tileX * _tileSize;
+		int top = tileY * _tileSize;
+		int right = Math.min(left + _tileSize, width);
+		int bottom = Math.min(top + _tileSize, height);
+
+		int regionLeft = Math.max(0, left - _radius);
+		int regionTop = Math.max(0, top - _radius);
+		int regionRight = Math.min(width, right + _radius);
+		int regionBottom = Math.min(height, bottom + _radius);
+		int regionWidth = regionRight - regionLeft;
+		int regionHeight = regionBottom - regionTop;
+
+		Bitmap region = Bitmap.createBitmap(_image, regionLeft, regionTop, regionWidth, regionHeight);
+		Bitmap blurred = Bitmap.createBitmap(regionWidth, regionHeight, Bitmap.Config.ARGB_8888);
+		BlurParams params = new BlurParams(null, null, null);
+		params.linear = _linear;
+		_blurProcess.blur(region, blurred, _radius, params);
+		if (region != _image) {
+			region.recycle();
+		}
+		if (regionWidth == right - left && regionHeight == bottom - top) {
+			return blurred;
+		}
+		Bitmap tile = Bitmap.createBitmap(blurred, left - regionLeft, top - regionTop, right - left, bottom - top);
+		blurred.recycle();
+		return tile;
+	}
+
+	private class TileTask extends FutureTask<Bitmap> {
+		private final Integer _key;
+
+		TileTask(final int tileX, final int tileY, final Integer key) {
+			super(new Callable<Bitmap>() {
+				@Override
+				public Bitmap call() throws Exception {
+					Bitmap tile = blurTile(tileX, tileY);
+					synchronized (_lock) {
+						put(key, tile);
+					}
+					return tile;
+				}
+			});
+			_key = key;
+		}
+
+		@Override
+		protected void done() {
+			synchronized (_lock) {
+				removePending(_key, this);
+			}
+		}
+	}
+}
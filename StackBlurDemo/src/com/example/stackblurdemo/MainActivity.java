@@ -23,6 +23,7 @@ import android.widget.SeekBar.OnSeekBarChangeListener;
 import android.widget.Spinner;
 import android.widget.ToggleButton;
 
+import com.enrique.stackblur.ProgressiveBlurListener;
 import com.enrique.stackblur.StackBlurManager;
 
 import butterknife.BindView;
@@ -41,6 +42,18 @@ public class MainActivity extends AppCompatActivity {
 	private String IMAGE_TO_ANALYZE = "android_platform_256.png";
 	
 	private int blurMode;
+
+	private final ProgressiveBlurListener _progressiveListener = new ProgressiveBlurListener() {
+		@Override
+		public void onPreview(int radius, Bitmap preview) {
+			show(preview);
+		}
+
+		@Override
+		public void onRefined(int radius, Bitmap result) {
+			show(result);
+		}
+	};
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -140,7 +153,8 @@ public class MainActivity extends AppCompatActivity {
 		int radius = _seekBar.getProgress() * 5;
 		switch(blurMode) {
 			case 0:
-				_imageView.setImageBitmap( _stackBlurManager.process(radius) );
+				// Dragging the SeekBar would otherwise blur every intermediate radius in full
+				_stackBlurManager.processProgressive(radius, _progressiveListener);
 				break;
 			case 1:
 				_imageView.setImageBitmap( _stackBlurManager.processNatively(radius) );
@@ -150,4 +164,13 @@ public class MainActivity extends AppCompatActivity {
 				break;
 		}
 	}
+
+	private void show(final Bitmap bitmap) {
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				_imageView.setImageBitmap(bitmap);
+			}
+		});
+	}
 }
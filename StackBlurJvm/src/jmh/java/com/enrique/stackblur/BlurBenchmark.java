@@ -0,0 +1,134 @@
+package com.enrique.stackblur;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and Vector API Java kernels with the native one called through
+ * the Foreign Function API, on the same direct buffers. Pass
+ * -Dstackblur.library=target/native/libstackblur.so if the library is not on the
+ * system library path. The linear methods blur the same pixels in linear light.
+ * Setup fails if the Vector API kernel differs from the scalar one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-native-access=ALL-UNNAMED", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class BlurBenchmark {
+	@Param({"1920x1080"})
+	public String size;
+
+	@Param({"3", "10", "50"})
+	public int radius;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	private PixelBuffer _src;
+	private PixelBuffer _dst;
+	private JavaPixelBlurProcess _java;
+	private JavaPixelBlurProcess _vector;
+	private PanamaBlurProcess _panama;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		int width = Integer.parseInt(size.substring(0, size.indexOf('x')));
+		int height = Integer.parseInt(size.substring(size.indexOf('x') + 1));
+		ByteBuffer pixels = ByteBuffer.allocateDirect(4 * width * height);
+		new Random(42).ints(width * height).forEach(pixels::putInt);
+		_src = new PixelBuffer(pixels, width, height, PixelBuffer.Layout.RGBA);
+		_dst = new PixelBuffer(ByteBuffer.allocateDirect(4 * width * height), width, height, PixelBuffer.Layout.RGBA);
+		_java = new JavaPixelBlurProcess(null, threads, false);
+		_vector = new JavaPixelBlurProcess(null, threads, true);
+		if (!_vector.isVectorized()) {
+			throw new IllegalStateException("jdk.incubator.vector is not available");
+		}
+		_panama = new PanamaBlurProcess(null, threads);
+
+		checkVector(_src, radius, null);
+		// Lines left over from the blocks of lanes go through the scalar kernel, small
+		// radii through the fixed-tap one, and the transform is applied by each
+		PixelBuffer odd = randomPixels(101, 67);
+		ColorTransform transform = ColorTransform.saturation(0.5f).then(ColorTransform.dim(0.3f));
+		for (int checkRadius : new int[] {2, radius}) {
+			checkVector(odd, checkRadius, null);
+			checkVector(odd, checkRadius, transform);
+		}
+	}
+
+	private static PixelBuffer randomPixels(int width, int height) {
+		ByteBuffer pixels = ByteBuffer.allocateDirect(4 * width * height);
+		new Random(7).ints(width * height).forEach(pixels::putInt);
+		return new PixelBuffer(pixels, width, height, PixelBuffer.Layout.RGBA);
+	}
+
+	/**
+	 * Fail unless the Vector API kernel blurs src exactly like the scalar one
+	 */
+	private void checkVector(PixelBuffer src, int checkRadius, ColorTransform transform) {
+		int width = src.getWidth();
+		int height = src.getHeight();
+		PixelBuffer expected = new PixelBuffer(ByteBuffer.allocateDirect(4 * width * height), width, height,
+				PixelBuffer.Layout.RGBA);
+		PixelBuffer actual = new PixelBuffer(ByteBuffer.allocateDirect(4 * width * height), width, height,
+				PixelBuffer.Layout.RGBA);
+		_java.blur(src, expected, checkRadius, transform);
+		_vector.blur(src, actual, checkRadius, transform);
+		if (!expected.getBuffer().equals(actual.getBuffer())) {
+			throw new IllegalStateException("The vector kernel differs from the scalar one at " + width + "x" + height
+					+ " radius " + checkRadius + (transform != null ? " with a transform" : ""));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		_panama.close();
+	}
+
+	@Benchmark
+	public PixelBuffer java() {
+		_java.blur(_src, _dst, radius, null);
+		return _dst;
+	}
+
+	@Benchmark
+	public PixelBuffer javaLinear() {
+		_java.blur(_src, _dst, radius, null, true);
+		return _dst;
+	}
+
+	@Benchmark
+	public PixelBuffer vector() {
+		_vector.blur(_src, _dst, radius, null);
+		return _dst;
+	}
+
+	@Benchmark
+	public PixelBuffer panama() {
+		_panama.blur(_src, _dst, radius, null);
+		return _dst;
+	}
+
+	@Benchmark
+	public PixelBuffer panamaLinear() {
+		_panama.blur(_src, _dst, radius, null, true);
+		return _dst;
+	}
+}
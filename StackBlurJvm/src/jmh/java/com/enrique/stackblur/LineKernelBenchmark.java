@@ -0,0 +1,134 @@
+package com.enrique.stackblur;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the packed channel kernel with the stack blur summed one channel at a time,
+ * on one line. The radii cover the four lane, three lane and two long layouts; setup
+ * fails if the two kernels disagree. The fractional method blurs by half a pixel more,
+ * which should cost about the same as the whole radius.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LineKernelBenchmark {
+	@Param({"1920"})
+	public int length;
+
+	@Param({"10", "50", "200"})
+	public int radius;
+
+	@Param({"true", "false"})
+	public boolean blurAlpha;
+
+	private int[] _in;
+	private int[] _out;
+	private PackedStackBlur _packed;
+	private PackedStackBlur _fractional;
+	private byte[][] _stacks;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		_in = new Random(42).ints(length).toArray();
+		_out = new int[length];
+		_packed = new PackedStackBlur(length, radius, blurAlpha);
+		_fractional = new PackedStackBlur(length, radius, LineBlur.RADIUS_SCALE / 2, blurAlpha);
+		_stacks = new byte[4][2 * radius + 1];
+		int[] expected = new int[length];
+		perChannel(_in, expected, length, radius, blurAlpha, _stacks);
+		_packed.blurLine(_in, _out, length);
+		if (!Arrays.equals(expected, _out)) {
+			throw new IllegalStateException("The packed kernel differs from the per channel one");
+		}
+	}
+
+	@Benchmark
+	public int[] packed() {
+		_packed.blurLine(_in, _out, length);
+		return _out;
+	}
+
+	@Benchmark
+	public int[] fractional() {
+		_fractional.blurLine(_in, _out, length);
+		return _out;
+	}
+
+	@Benchmark
+	public int[] perChannel() {
+		perChannel(_in, _out, length, radius, blurAlpha, _stacks);
+		return _out;
+	}
+
+	/**
+	 * The stack blur with separate sums and a stack of bytes for each channel
+	 */
+	private static void perChannel(int[] in, int[] out, int len, int radius, boolean blurAlpha, byte[][] stacks) {
+		final int div = 2 * radius + 1;
+		final int divSum = (radius + 1) * (radius + 1);
+		final int channels = blurAlpha ? 4 : 3;
+		final int last = len - 1;
+		int[] sum = new int[4], sumIn = new int[4], sumOut = new int[4];
+		for (int c = 0; c < channels; c++) {
+			int shift = 8 * c;
+			byte[] stack = stacks[c];
+			for (int i = 0; i <= radius; i++) {
+				int v = (in[0] >>> shift) & 0xFF;
+				stack[i] = (byte) v;
+				sum[c] += v * (i + 1);
+				sumOut[c] += v;
+			}
+			for (int i = 1; i <= radius; i++) {
+				int v = (in[Math.min(i, last)] >>> shift) & 0xFF;
+				stack[i + radius] = (byte) v;
+				sum[c] += v * (radius + 1 - i);
+				sumIn[c] += v;
+			}
+		}
+
+		int stackIndex = radius;
+		for (int i = 0; ; i++) {
+			int pixel = blurAlpha ? 0 : in[i] & 0xFF000000;
+			for (int c = 0; c < channels; c++) {
+				pixel |= ((sum[c] + divSum / 2) / divSum) << (8 * c);
+			}
+			out[i] = pixel;
+			if (i == last) {
+				break;
+			}
+			int drop = (stackIndex + radius + 1) % div;
+			int entering = in[Math.min(i + radius + 1, last)];
+			int next = (stackIndex + 1) % div;
+			for (int c = 0; c < channels; c++) {
+				byte[] stack = stacks[c];
+				int v = (entering >>> (8 * c)) & 0xFF;
+				sum[c] -= sumOut[c];
+				sumOut[c] -= stack[drop] & 0xFF;
+				stack[drop] = (byte) v;
+				sumIn[c] += v;
+				sum[c] += sumIn[c];
+				sumOut[c] += stack[next] & 0xFF;
+				sumIn[c] -= stack[next] & 0xFF;
+			}
+			stackIndex = next;
+		}
+	}
+}
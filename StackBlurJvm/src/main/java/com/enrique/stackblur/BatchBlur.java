@@ -0,0 +1,385 @@
+package com.enrique.stackblur;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Blurs every image under a directory into another directory, keeping the same tree.
+ *
+ * Decoding, blurring and encoding are separate stages with their own threads, connected
+ * by bounded queues, so each can be sized to the work it does and a slow stage throttles
+ * the others. Outputs are written to a temporary file and renamed into place, and images
+ * whose output is newer than the input are skipped, so an interrupted run picks up where
+ * it stopped. The rate of each stage is printed as it runs. Images are decoded at the
+ * lowest resolution the blur hides, which is often far below that of the input.
+ *
+ * <pre>
+ *   java -cp stackblur-jvm.jar com.enrique.stackblur.BatchBlur --radius 20 --scale 0.25 photos/ placeholders/
+ * </pre>
+ */
+public class BatchBlur {
+	private static final String USAGE = "Usage: BatchBlur [options] <input dir> <output dir>\n"
+			+ "  --radius <r>      blur radius in input pixels (default 20)\n"
+			+ "  --scale <s>       size of the output relative to the input (default 1)\n"
+			+ "  --format <f>      png or jpg (default png)\n"
+			+ "  --decoders <n>    decoding threads\n"
+			+ "  --blurrers <n>    blurring threads\n"
+			+ "  --encoders <n>    encoding threads\n"
+			+ "  --queue <n>       images waiting between two stages (default 16)\n"
+			+ "  --progress <s>    seconds between progress reports, 0 for none (default 5)\n"
+			+ "  --linear          blur in linear light\n"
+			+ "  --max-error <e>   error allowed on thin details from decoding at a lower\n"
+			+ "                    resolution, as a fraction of their contrast (default 0.1);\n"
+			+ "                    0 to decode in full\n"
+			+ "  --force           blur images even if their output is up to date\n";
+
+	/**
+	 * An image on its way through the pipeline
+	 */
+	private static final class Job {
+		final Path source;
+		final Path target;
+		/** Size of the output */
+		int width;
+		int height;
+		PixelBuffer pixels;
+
+		Job(Path source, Path target) {
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		public String toString() {
+			return source.toString();
+		}
+	}
+
+	private final Path _input;
+	private final Path _output;
+	private float _radius = 20;
+	private float _scale = 1;
+	private String _format = "png";
+	private int _decoders;
+	private int _blurrers;
+	private int _encoders;
+	private int _queue = 16;
+	private int _progressSeconds = 5;
+	private boolean _linear;
+	private float _maxError = DecodeSampling.DEFAULT_MAX_ERROR;
+	private boolean _force;
+
+	private final AtomicLong _found = new AtomicLong();
+	private final AtomicLong _skipped = new AtomicLong();
+	private final AtomicLong _sourcePixels = new AtomicLong();
+	private final AtomicLong _decodedPixels = new AtomicLong();
+
+	BatchBlur(Path input, Path output) {
+		_input = input;
+		_output = output;
+		int cpus = Runtime.getRuntime().availableProcessors();
+		// PNG encoding is usually the slowest step; tune from the busy figures in the report
+		_decoders = Math.max(1, cpus / 4);
+		_blurrers = Math.max(1, cpus / 4);
+		_encoders = Math.max(1, cpus / 2);
+	}
+
+	public static void main(String[] args) throws Exception {
+		BatchBlur batch;
+		try {
+			batch = parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+			return;
+		}
+		System.exit(batch.run() ? 0 : 1);
+	}
+
+	private static BatchBlur parse(String[] args) {
+		Path input = null;
+		Path output = null;
+		String[] options = new String[0];
+		int positional = 0;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].startsWith("--")) {
+				boolean flag = args[i].equals("--force") || args[i].equals("--linear");
+				if (!flag && i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for " + args[i]);
+				}
+				options = Arrays.copyOf(options, options.length + 2);
+				options[options.length - 2] = args[i];
+				options[options.length - 1] = flag ? null : args[++i];
+			} else if (positional == 0) {
+				input = Paths.get(args[i]);
+				positional++;
+			} else if (positional == 1) {
+				output = Paths.get(args[i]);
+				positional++;
+			} else {
+				throw new IllegalArgumentException("Unexpected argument " + args[i]);
+			}
+		}
+		if (input == null || output == null) {
+			throw new IllegalArgumentException("Input and output directories are required");
+		}
+		if (!Files.isDirectory(input)) {
+			throw new IllegalArgumentException(input + " is not a directory");
+		}
+		BatchBlur batch = new BatchBlur(input, output);
+		for (int i = 0; i < options.length; i += 2) {
+			String value = options[i + 1];
+			try {
+				switch (options[i]) {
+					case "--radius": batch._radius = Float.parseFloat(value); break;
+					case "--scale": batch._scale = Float.parseFloat(value); break;
+					case "--format": batch._format = value.toLowerCase(Locale.ROOT); break;
+					case "--decoders": batch._decoders = Integer.parseInt(value); break;
+					case "--blurrers": batch._blurrers = Integer.parseInt(value); break;
+					case "--encoders": batch._encoders = Integer.parseInt(value); break;
+					case "--queue": batch._queue = Integer.parseInt(value); break;
+					case "--progress": batch._progressSeconds = Integer.parseInt(value); break;
+					case "--linear": batch._linear = true; break;
+					case "--max-error": batch._maxError = Float.parseFloat(value); break;
+					case "--force": batch._force = true; break;
+					default: throw new IllegalArgumentException("Unknown option " + options[i]);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad value for " + options[i] + ": " + value);
+			}
+		}
+		if (batch._radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+		if (batch._maxError < 0) {
+			throw new IllegalArgumentException("max-error must be >= 0");
+		}
+		if (batch._scale <= 0 || batch._scale > 1) {
+			throw new IllegalArgumentException("scale must be > 0 and <= 1");
+		}
+		if (!batch._format.equals("png") && !batch._format.equals("jpg")) {
+			throw new IllegalArgumentException("format must be png or jpg");
+		}
+		if (batch._queue < 1 || batch._decoders < 1 || batch._blurrers < 1 || batch._encoders < 1) {
+			throw new IllegalArgumentException("queue and thread counts must be >= 1");
+		}
+		return batch;
+	}
+
+	/**
+	 * @return true if every image was blurred or already up to date
+	 */
+	boolean run() throws InterruptedException {
+		final BlockingQueue<Object> toDecode = new ArrayBlockingQueue<Object>(_queue);
+		BlockingQueue<Object> toBlur = new ArrayBlockingQueue<Object>(_queue);
+		BlockingQueue<Object> toEncode = new ArrayBlockingQueue<Object>(_queue);
+
+		BatchStage<Job, Job> decode = new BatchStage<Job, Job>("decode", _decoders, toDecode, toBlur, _blurrers,
+				new BatchStage.Work<Job, Job>() {
+					@Override
+					public Job process(Job job) throws IOException {
+						try (PixelImages.Decoder decoder = new PixelImages.Decoder(job.source)) {
+							int width = decoder.getWidth();
+							int height = decoder.getHeight();
+							job.width = Math.max(1, Math.round(width * _scale));
+							job.height = Math.max(1, Math.round(height * _scale));
+							// Skip the pixels the blur would average away anyway
+							int sampleSize = DecodeSampling.sampleSize(width, height, job.width, job.height,
+									_radius * _scale, _maxError);
+							job.pixels = decoder.decode(sampleSize);
+							_sourcePixels.addAndGet((long) width * height);
+							_decodedPixels.addAndGet((long) job.pixels.getWidth() * job.pixels.getHeight());
+						}
+						return job;
+					}
+				});
+		final ThreadLocal<JavaPixelBlurProcess> blurProcess = new ThreadLocal<JavaPixelBlurProcess>() {
+			@Override
+			protected JavaPixelBlurProcess initialValue() {
+				// The stage is already parallel, so each image is blurred on one thread
+				return new JavaPixelBlurProcess(null, 1);
+			}
+		};
+		BatchStage<Job, Job> blur = new BatchStage<Job, Job>("blur", _blurrers, toBlur, toEncode, _encoders,
+				new BatchStage.Work<Job, Job>() {
+					@Override
+					public Job process(Job job) {
+						PixelBuffer src = job.pixels;
+						int width = job.width;
+						int height = job.height;
+						PixelBuffer dst = src;
+						if (width != src.getWidth() || height != src.getHeight()) {
+							dst = new PixelBuffer(ByteBuffer.allocate(4 * width * height), width, height,
+									PixelBuffer.Layout.ARGB);
+						}
+						// The image may have been decoded at a lower resolution, the radius is in its pixels
+						float scale = Math.min((float) width / src.getWidth(), (float) height / src.getHeight());
+						blurProcess.get().blur(src, dst, _radius * _scale / scale, null, _linear);
+						job.pixels = dst;
+						return job;
+					}
+				});
+		BatchStage<Job, Job> encode = new BatchStage<Job, Job>("encode", _encoders, toEncode, null, 0,
+				new BatchStage.Work<Job, Job>() {
+					@Override
+					public Job process(Job job) throws IOException {
+						write(job);
+						job.pixels = null;
+						return job;
+					}
+				});
+		final BatchStage<?, ?>[] stages = { decode, blur, encode };
+
+		Thread walker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					walk(toDecode);
+				} catch (IOException e) {
+					System.err.println("Failed to list " + _input + ": " + e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					try {
+						for (int i = 0; i < _decoders; i++) {
+							toDecode.put(BatchStage.END);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "walk");
+
+		final long start = System.nanoTime();
+		Thread reporter = null;
+		if (_progressSeconds > 0) {
+			reporter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							Thread.sleep(_progressSeconds * 1000L);
+							System.out.println(report(stages, start));
+						}
+					} catch (InterruptedException e) {
+						// Finished
+					}
+				}
+			}, "report");
+			reporter.setDaemon(true);
+		}
+
+		walker.start();
+		for (BatchStage<?, ?> stage : stages) {
+			stage.start();
+		}
+		if (reporter != null) {
+			reporter.start();
+		}
+		walker.join();
+		for (BatchStage<?, ?> stage : stages) {
+			stage.join();
+		}
+		if (reporter != null) {
+			reporter.interrupt();
+		}
+		System.out.println(report(stages, start));
+
+		long failed = 0;
+		for (BatchStage<?, ?> stage : stages) {
+			failed += stage.getFailed();
+		}
+		System.out.println(_found.get() + " images, " + encode.getProcessed() + " blurred, "
+				+ _skipped.get() + " up to date, " + failed + " failed");
+		if (_sourcePixels.get() > 0) {
+			System.out.printf(Locale.ROOT, "Decoded %.1f%% of the source pixels%n",
+					100.0 * _decodedPixels.get() / _sourcePixels.get());
+		}
+		return failed == 0;
+	}
+
+	/**
+	 * Queue every image under the input directory whose output is missing or out of date.
+	 * Blocks while the decoders are behind.
+	 */
+	private void walk(BlockingQueue<Object> toDecode) throws IOException, InterruptedException {
+		Set<String> suffixes = new HashSet<String>();
+		for (String suffix : ImageIO.getReaderFileSuffixes()) {
+			suffixes.add(suffix.toLowerCase(Locale.ROOT));
+		}
+		try (Stream<Path> files = Files.walk(_input)) {
+			Iterator<Path> it = files.iterator();
+			while (it.hasNext()) {
+				Path source = it.next();
+				String name = source.getFileName().toString();
+				int dot = name.lastIndexOf('.');
+				if (dot < 0 || !suffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))
+						|| !Files.isRegularFile(source)) {
+					continue;
+				}
+				_found.incrementAndGet();
+				Path target = _output.resolve(_input.relativize(source)).resolveSibling(name.substring(0, dot) + "." + _format);
+				if (!_force && Files.exists(target)
+						&& Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+					_skipped.incrementAndGet();
+					continue;
+				}
+				toDecode.put(new Job(source, target));
+			}
+		}
+	}
+
+	/**
+	 * Encode into a temporary file next to the target, then rename it into place, so the
+	 * target only ever exists complete
+	 */
+	private void write(Job job) throws IOException {
+		Files.createDirectories(job.target.getParent());
+		Path temp = job.target.resolveSibling(job.target.getFileName() + ".part");
+		boolean alpha = _format.equals("png");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+			if (!ImageIO.write(PixelImages.toImage(job.pixels, alpha), _format, out)) {
+				throw new IOException("no writer for " + _format);
+			}
+		}
+		try {
+			Files.move(temp, job.target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, job.target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * One line with the images per second of each stage since the start, and how busy
+	 * its threads were; the busiest stage is the one to give more threads to
+	 */
+	private static String report(BatchStage<?, ?>[] stages, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%7.1fs", seconds));
+		for (BatchStage<?, ?> stage : stages) {
+			double busy = stage.getBusyNanos() / 1e9 / seconds / stage.getWorkers();
+			line.append(String.format(Locale.ROOT, "  %s %d (%.1f/s, %d threads %.0f%% busy)", stage.getName(),
+					stage.getProcessed(), stage.getProcessed() / seconds, stage.getWorkers(), 100 * busy));
+		}
+		return line.toString();
+	}
+}
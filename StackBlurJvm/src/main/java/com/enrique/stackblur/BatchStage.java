@@ -0,0 +1,140 @@
+package com.enrique.stackblur;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of the batch pipeline: a fixed number of threads taking items from a bounded
+ * input queue, and putting the results on the bounded queue of the next stage. A full
+ * output queue blocks the workers, which lets the input queue fill up in turn, so a slow
+ * stage holds back the ones before it instead of piling up decoded images.
+ *
+ * The end of the input is marked with {@link #END}; when the last worker sees it, the
+ * stage passes one END per worker of the next stage.
+ */
+class BatchStage<I, O> {
+	/** Marks the end of a queue. Compared by identity. */
+	static final Object END = new Object();
+
+	interface Work<I, O> {
+		/**
+		 * @return the result to pass on, or null to drop the item
+		 */
+		O process(I item) throws Exception;
+	}
+
+	private final String _name;
+	private final BlockingQueue<Object> _input;
+	private final BlockingQueue<Object> _output;
+	private final int _nextWorkers;
+	private final Work<I, O> _work;
+	private final Thread[] _threads;
+	private final AtomicInteger _running;
+
+	private final AtomicLong _processed = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+	private final AtomicLong _busyNanos = new AtomicLong();
+
+	/**
+	 * @param output      the queue of the next stage, or null if this is the last one
+	 * @param nextWorkers number of END markers the next stage waits for
+	 */
+	BatchStage(String name, int workers, BlockingQueue<Object> input, BlockingQueue<Object> output,
+	           int nextWorkers, Work<I, O> work) {
+		if (workers < 1) {
+			throw new IllegalArgumentException(name + " needs at least one thread");
+		}
+		_name = name;
+		_input = input;
+		_output = output;
+		_nextWorkers = nextWorkers;
+		_work = work;
+		_threads = new Thread[workers];
+		_running = new AtomicInteger(workers);
+		for (int i = 0; i < workers; i++) {
+			_threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, name + "-" + (i + 1));
+		}
+	}
+
+	String getName() {
+		return _name;
+	}
+
+	int getWorkers() {
+		return _threads.length;
+	}
+
+	long getProcessed() {
+		return _processed.get();
+	}
+
+	long getFailed() {
+		return _failed.get();
+	}
+
+	/**
+	 * Time the workers spent processing items, summed over all of them
+	 */
+	long getBusyNanos() {
+		return _busyNanos.get();
+	}
+
+	void start() {
+		for (Thread thread : _threads) {
+			thread.start();
+		}
+	}
+
+	void join() throws InterruptedException {
+		for (Thread thread : _threads) {
+			thread.join();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void work() {
+		try {
+			while (true) {
+				Object item = _input.take();
+				if (item == END) {
+					break;
+				}
+				long start = System.nanoTime();
+				O result;
+				try {
+					result = _work.process((I) item);
+				} catch (Exception e) {
+					result = null;
+					_failed.incrementAndGet();
+					System.err.println(_name + " failed on " + item + ": " + e);
+				}
+				_busyNanos.addAndGet(System.nanoTime() - start);
+				if (result != null) {
+					_processed.incrementAndGet();
+					if (_output != null) {
+						_output.put(result);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// Even a worker killed by an Error must not leave the next stage waiting
+			if (_running.decrementAndGet() == 0 && _output != null) {
+				try {
+					for (int i = 0; i < _nextWorkers; i++) {
+						_output.put(END);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+}
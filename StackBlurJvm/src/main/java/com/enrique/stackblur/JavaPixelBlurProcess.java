@@ -0,0 +1,80 @@
+package com.enrique.stackblur;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Blur using the Java kernel, the same code JavaBlurProcess runs on Android.
+ * Works on any PixelBuffer, direct or not.
+ *
+ * When the JVM is started with --add-modules jdk.incubator.vector, blocks of lines are
+ * blurred with the Vector API instead, with the same output. Linear light blurs always
+ * use the scalar kernel.
+ */
+public class JavaPixelBlurProcess extends SplitBlurProcess {
+	/** Only touch VectorLineBlur if the module is there, or it fails to load */
+	private static final boolean VECTOR_AVAILABLE =
+			ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorLineBlur.LANES >= 4;
+
+	private final boolean _vectorize;
+
+	/**
+	 * Blur on a shared pool with one thread per processor
+	 */
+	public JavaPixelBlurProcess() {
+		_vectorize = VECTOR_AVAILABLE;
+	}
+
+	/**
+	 * @param executor runs all but one of the ranges of lines, or null for the shared pool
+	 * @param threads  number of ranges each pass is split into
+	 */
+	public JavaPixelBlurProcess(Executor executor, int threads) {
+		this(executor, threads, true);
+	}
+
+	/**
+	 * @param vectorize use the Vector API if it is available
+	 */
+	JavaPixelBlurProcess(Executor executor, int threads, boolean vectorize) {
+		super(executor, threads);
+		_vectorize = vectorize && VECTOR_AVAILABLE;
+	}
+
+	/**
+	 * Whether blocks of lines are blurred with the Vector API
+	 */
+	public boolean isVectorized() {
+		return _vectorize;
+	}
+
+	@Override
+	public void blur(PixelBuffer src, PixelBuffer dst, float radius, ColorTransform transform, boolean linear) {
+		if (dst.getBuffer().isReadOnly()) {
+			throw new IllegalArgumentException("dst must be writable");
+		}
+		int roundRadius = scaledRadius(src.getWidth(), src.getHeight(), dst.getWidth(), dst.getHeight(), radius);
+		if (roundRadius == 0 && src == dst && transform == null) {
+			return;
+		}
+		PixelSurface dstSurface = new BufferSurface(dst);
+		PixelSurface srcSurface = (src == dst) ? dstSurface : new BufferSurface(src);
+
+		LineWorker[] workers = new LineWorker[threads()];
+		for (int i = 0; i < workers.length; i++) {
+			if (_vectorize && !linear) {
+				workers[i] = new VectorLineBlur(srcSurface, dstSurface, roundRadius, transform);
+				continue;
+			}
+			final LineBlur lineBlur = new LineBlur(srcSurface, dstSurface, roundRadius, transform, false, linear);
+			workers[i] = new LineWorker() {
+				@Override
+				public void blurLines(int start, int end, boolean horizontal) {
+					for (int line = start; line < end; line++) {
+						lineBlur.blurLine(line, horizontal);
+					}
+				}
+			};
+		}
+		run(workers, dst.getWidth(), dst.getHeight(), roundRadius);
+	}
+}
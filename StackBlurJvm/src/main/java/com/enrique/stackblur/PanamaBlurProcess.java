@@ -0,0 +1,231 @@
+package com.enrique.stackblur;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Blur by calling the native kernel, libstackblur built from StackBlur/jni/stackblur.c,
+ * through the Foreign Function API. This is the NativeBlurProcess of the plain JVM.
+ *
+ * The pixels are passed to the kernel where they are, so they must be off-heap: direct
+ * PixelBuffers, or native MemorySegments such as those from {@link #allocatePixels}.
+ * Allocate them once from a long-lived arena and reuse them for every frame.
+ *
+ * The library is looked up at the path in the stackblur.library system property, or
+ * on the system library path. The JVM needs --enable-native-access to call it without
+ * a warning. The library stays loaded until the process is closed.
+ */
+public class PanamaBlurProcess extends SplitBlurProcess implements AutoCloseable {
+	private static final FunctionDescriptor STACKBLUR_JOB = FunctionDescriptor.of(ValueLayout.JAVA_INT,
+			ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT,
+			ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT,
+			ValueLayout.JAVA_INT, ValueLayout.ADDRESS,
+			ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_BOOLEAN, ValueLayout.JAVA_BOOLEAN);
+	private static final int TRANSFORM_SIZE = 20;
+
+	/** Holds the library and the transform coefficients for as long as the process is open */
+	private final Arena _arena;
+	private final MethodHandle _stackblurJob;
+	/** Coefficient buffers which are not in use, so concurrent blurs never share one */
+	private final ConcurrentLinkedQueue<MemorySegment> _transforms = new ConcurrentLinkedQueue<MemorySegment>();
+
+	/**
+	 * Blur on a shared pool with one thread per processor
+	 */
+	public PanamaBlurProcess() {
+		_arena = Arena.ofShared();
+		_stackblurJob = load(_arena);
+	}
+
+	/**
+	 * @param executor runs all but one of the ranges of lines, or null for the shared pool
+	 * @param threads  number of ranges each pass is split into
+	 */
+	public PanamaBlurProcess(Executor executor, int threads) {
+		super(executor, threads);
+		_arena = Arena.ofShared();
+		_stackblurJob = load(_arena);
+	}
+
+	private static MethodHandle load(Arena arena) {
+		String path = System.getProperty("stackblur.library");
+		SymbolLookup library = (path != null)
+				? SymbolLookup.libraryLookup(Path.of(path), arena)
+				: SymbolLookup.libraryLookup(System.mapLibraryName("stackblur"), arena);
+		MemorySegment function = library.find("stackblurJob")
+				.orElseThrow(() -> new UnsatisfiedLinkError("stackblurJob not found"));
+		return Linker.nativeLinker().downcallHandle(function, STACKBLUR_JOB);
+	}
+
+	/**
+	 * Allocate a width x height RGBA image with no padding between rows
+	 */
+	public static MemorySegment allocatePixels(Arena arena, int width, int height) {
+		return arena.allocate(4L * width * height, 16);
+	}
+
+	/**
+	 * The native kernel only handles RGBA pixels, so ARGB buffers are blurred in Java.
+	 *
+	 * @throws IllegalArgumentException if either buffer is not direct
+	 */
+	@Override
+	public void blur(PixelBuffer src, PixelBuffer dst, float radius, ColorTransform transform, boolean linear) {
+		if (src.getLayout() != PixelBuffer.Layout.RGBA || dst.getLayout() != PixelBuffer.Layout.RGBA) {
+			new JavaPixelBlurProcess(executor(), threads()).blur(src, dst, radius, transform, linear);
+			return;
+		}
+		if (!src.getBuffer().isDirect() || !dst.getBuffer().isDirect()) {
+			throw new IllegalArgumentException("buffers must be direct");
+		}
+		if (dst.getBuffer().isReadOnly()) {
+			throw new IllegalArgumentException("dst must be writable");
+		}
+		MemorySegment dstPixels = segment(dst.getBuffer());
+		MemorySegment srcPixels = (src == dst) ? dstPixels : segment(src.getBuffer());
+		blur(srcPixels, src.getWidth(), src.getHeight(), src.getStride(),
+				dstPixels, dst.getWidth(), dst.getHeight(), dst.getStride(), radius, transform, linear);
+	}
+
+	/**
+	 * Blur RGBA pixels in native memory. Same as {@link #blur(PixelBuffer, PixelBuffer, float, ColorTransform, boolean)}
+	 * without the ByteBuffers; the pixels start at the beginning of the segments.
+	 *
+	 * @param srcStride number of bytes between rows of src
+	 * @param stride    number of bytes between rows of dst
+	 */
+	public void blur(MemorySegment src, int srcWidth, int srcHeight, int srcStride,
+	                 MemorySegment dst, int width, int height, int stride,
+	                 float radius, ColorTransform transform, boolean linear) {
+		checkPixels(src, srcWidth, srcHeight, srcStride);
+		checkPixels(dst, width, height, stride);
+		if (dst.isReadOnly()) {
+			throw new IllegalArgumentException("dst must be writable");
+		}
+		int roundRadius = scaledRadius(srcWidth, srcHeight, width, height, radius);
+		boolean inPlace = src.address() == dst.address();
+		if (roundRadius == 0 && inPlace && transform == null) {
+			return;
+		}
+
+		MemorySegment coefficients = MemorySegment.NULL;
+		if (transform != null) {
+			coefficients = _transforms.poll();
+			if (coefficients == null) {
+				coefficients = _arena.allocate(4L * TRANSFORM_SIZE, 4);
+			}
+			int[] fixed = transform.fixedPoint();
+			for (int i = 0; i < TRANSFORM_SIZE; i++) {
+				coefficients.setAtIndex(ValueLayout.JAVA_INT, i, fixed[i]);
+			}
+		}
+		try {
+			// The kernel keeps no state between calls, so every thread can share one worker
+			LineWorker worker = new NativeWorker(src, srcWidth, srcHeight, srcStride,
+					dst, width, height, stride, roundRadius, coefficients, linear);
+			LineWorker[] workers = new LineWorker[threads()];
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = worker;
+			}
+			run(workers, width, height, roundRadius);
+		} finally {
+			if (transform != null) {
+				_transforms.add(coefficients);
+			}
+		}
+	}
+
+	/**
+	 * Unload the library. Blurs in progress must have finished.
+	 */
+	@Override
+	public void close() {
+		_arena.close();
+	}
+
+	private static MemorySegment segment(ByteBuffer buffer) {
+		// The pixels start at index 0, whatever the position and limit are
+		return MemorySegment.ofBuffer(buffer.duplicate().clear());
+	}
+
+	private static void checkPixels(MemorySegment pixels, int width, int height, int stride) {
+		if (!pixels.isNative()) {
+			throw new IllegalArgumentException("pixels must be in native memory");
+		}
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("width and height must be > 0");
+		}
+		if (stride < width * 4 || stride % 4 != 0) {
+			throw new IllegalArgumentException("stride must be a multiple of 4, >= width * 4");
+		}
+		if ((long) stride * (height - 1) + width * 4L > pixels.byteSize()) {
+			throw new IllegalArgumentException("segment is too small for " + width + "x" + height + " pixels");
+		}
+	}
+
+	private class NativeWorker implements LineWorker {
+		private final MemorySegment _src;
+		private final int _srcWidth;
+		private final int _srcHeight;
+		private final int _srcStride;
+		private final MemorySegment _dst;
+		private final int _width;
+		private final int _height;
+		private final int _stride;
+		private final int _radius;
+		private final MemorySegment _transform;
+		private final boolean _linear;
+
+		NativeWorker(MemorySegment src, int srcWidth, int srcHeight, int srcStride,
+		             MemorySegment dst, int width, int height, int stride, int radius, MemorySegment transform,
+		             boolean linear) {
+			_src = src;
+			_srcWidth = srcWidth;
+			_srcHeight = srcHeight;
+			_srcStride = srcStride;
+			_dst = dst;
+			_width = width;
+			_height = height;
+			_stride = stride;
+			_radius = radius;
+			_transform = transform;
+			_linear = linear;
+		}
+
+		@Override
+		public void blurLines(int start, int end, boolean horizontal) {
+			if (start >= end) {
+				return;
+			}
+			// Only the horizontal pass reads the source, and only the last pass transforms
+			MemorySegment in = horizontal ? _src : _dst;
+			MemorySegment transform = (horizontal && _radius > 0) ? MemorySegment.NULL : _transform;
+			int result;
+			try {
+				result = (int) _stackblurJob.invokeExact(in, _srcWidth, _srcHeight, _srcStride,
+						_dst, _width, _height, _stride, _radius * LineBlur.RADIUS_SCALE, transform, start, end,
+						horizontal, _linear);
+			} catch (Throwable t) {
+				if (t instanceof RuntimeException) {
+					throw (RuntimeException) t;
+				}
+				if (t instanceof Error) {
+					throw (Error) t;
+				}
+				throw new RuntimeException(t);
+			}
+			if (result != 0) {
+				throw new OutOfMemoryError("Out of memory in native blur");
+			}
+		}
+	}
+}
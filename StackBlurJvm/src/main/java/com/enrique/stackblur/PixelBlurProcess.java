@@ -0,0 +1,24 @@
+package com.enrique.stackblur;
+
+/**
+ * The plain JVM counterpart of BlurProcess, blurring {@link PixelBuffer}s instead of Bitmaps.
+ * Implementations are thread safe.
+ */
+public interface PixelBlurProcess {
+	/**
+	 * Blur src into dst, resampling if the sizes differ and scaling the radius with it.
+	 * src and dst may be the same buffer.
+	 *
+	 * @param transform color operation applied as the result is written, or null
+	 */
+	default void blur(PixelBuffer src, PixelBuffer dst, float radius, ColorTransform transform) {
+		blur(src, dst, radius, transform, false);
+	}
+
+	/**
+	 * Same as {@link #blur(PixelBuffer, PixelBuffer, float, ColorTransform)}
+	 *
+	 * @param linear blur the colors in linear light instead of sRGB
+	 */
+	void blur(PixelBuffer src, PixelBuffer dst, float radius, ColorTransform transform, boolean linear);
+}
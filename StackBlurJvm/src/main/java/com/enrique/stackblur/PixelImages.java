@@ -0,0 +1,122 @@
+package com.enrique.stackblur;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Conversions between ImageIO's BufferedImages and PixelBuffers, the plain JVM
+ * equivalent of getPixels and setPixels on a Bitmap.
+ */
+final class PixelImages {
+	private PixelImages() {
+	}
+
+	/**
+	 * Decodes an image file, possibly at a lower resolution. The ImageIO equivalent of
+	 * decoding with BitmapFactory.Options.inSampleSize.
+	 */
+	static final class Decoder implements AutoCloseable {
+		private final ImageInputStream _in;
+		private final ImageReader _reader;
+
+		/**
+		 * Reads the header of the file
+		 * @throws IOException if it is not an image ImageIO can read
+		 */
+		Decoder(Path file) throws IOException {
+			_in = ImageIO.createImageInputStream(file.toFile());
+			if (_in == null) {
+				throw new IOException("Cannot open " + file);
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(_in);
+			if (!readers.hasNext()) {
+				_in.close();
+				throw new IOException("not a readable image");
+			}
+			_reader = readers.next();
+			_reader.setInput(_in, true, true);
+		}
+
+		int getWidth() throws IOException {
+			return _reader.getWidth(0);
+		}
+
+		int getHeight() throws IOException {
+			return _reader.getHeight(0);
+		}
+
+		/**
+		 * Decode every sampleSize-th pixel of every sampleSize-th row
+		 */
+		PixelBuffer decode(int sampleSize) throws IOException {
+			ImageReadParam param = _reader.getDefaultReadParam();
+			param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+			return fromImage(_reader.read(0, param));
+		}
+
+		@Override
+		public void close() throws IOException {
+			_reader.dispose();
+			_in.close();
+		}
+	}
+
+	/**
+	 * Copy an image into a new premultiplied ARGB PixelBuffer, converting its pixels if needed
+	 */
+	static PixelBuffer fromImage(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BufferedImage argb = image;
+		if (image.getType() != BufferedImage.TYPE_INT_ARGB_PRE) {
+			argb = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+			Graphics2D graphics = argb.createGraphics();
+			graphics.drawImage(image, 0, 0, null);
+			graphics.dispose();
+		}
+		int[] pixels = ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+		ByteBuffer buffer = ByteBuffer.allocate(4 * width * height);
+		// Big-endian ints are the ARGB layout
+		buffer.asIntBuffer().put(pixels, 0, width * height);
+		return new PixelBuffer(buffer, width, height, PixelBuffer.Layout.ARGB);
+	}
+
+	/**
+	 * Copy an ARGB PixelBuffer into a new image
+	 * @param alpha keep the alpha channel; without it the pixels are drawn over black
+	 */
+	static BufferedImage toImage(PixelBuffer pixels, boolean alpha) {
+		if (pixels.getLayout() != PixelBuffer.Layout.ARGB) {
+			throw new IllegalArgumentException("pixels must be ARGB");
+		}
+		int width = pixels.getWidth();
+		int height = pixels.getHeight();
+		BufferedImage argb = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+		int[] data = ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+		ByteBuffer buffer = pixels.getBuffer();
+		for (int y = 0; y < height; y++) {
+			int index = y * pixels.getStride();
+			for (int x = 0; x < width; x++, index += 4) {
+				data[y * width + x] = buffer.getInt(index);
+			}
+		}
+		if (alpha) {
+			return argb;
+		}
+		BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = rgb.createGraphics();
+		graphics.drawImage(argb, 0, 0, Color.BLACK, null);
+		graphics.dispose();
+		return rgb;
+	}
+}
@@ -0,0 +1,132 @@
+package com.enrique.stackblur;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the two passes of a blur, each split into contiguous ranges of lines over the threads
+ * of an executor, the same way BlurExecutor does on Android. The caller thread blurs the
+ * first range, so a pass never waits for an executor that is busy with other blurs.
+ */
+abstract class SplitBlurProcess implements PixelBlurProcess {
+	private static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService DEFAULT_EXECUTOR;
+
+	/**
+	 * Blurs ranges of lines of one blur. Each thread gets its own worker.
+	 */
+	interface LineWorker {
+		void blurLines(int start, int end, boolean horizontal);
+	}
+
+	private final Executor _executor;
+	private final int _threads;
+
+	SplitBlurProcess(Executor executor, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be >= 1");
+		}
+		_executor = (executor != null || threads == 1) ? executor : defaultExecutor();
+		_threads = threads;
+	}
+
+	SplitBlurProcess() {
+		this(null, DEFAULT_THREADS);
+	}
+
+	Executor executor() {
+		return _executor;
+	}
+
+	int threads() {
+		return _threads;
+	}
+
+	/**
+	 * The radius to blur dst with, scaled like the source is
+	 */
+	static int scaledRadius(int srcWidth, int srcHeight, int dstWidth, int dstHeight, float radius) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("radius must be >= 0");
+		}
+		float scale = Math.min((float) dstWidth / srcWidth, (float) dstHeight / srcHeight);
+		return Math.round(radius * scale);
+	}
+
+	/**
+	 * Blur the rows, then unless the radius is 0, the columns of a width x height image
+	 * @param workers one per thread
+	 */
+	void run(LineWorker[] workers, int width, int height, int radius) {
+		runPass(workers, height, true);
+		if (radius > 0) {
+			runPass(workers, width, false);
+		}
+	}
+
+	private void runPass(LineWorker[] workers, int lines, final boolean horizontal) {
+		int count = workers.length;
+		ArrayList<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(count);
+		for (int i = 0; i < count; i++) {
+			final LineWorker worker = workers[i];
+			final int start = lines * i / count;
+			final int end = lines * (i + 1) / count;
+			tasks.add(new FutureTask<Void>(new Runnable() {
+				@Override
+				public void run() {
+					worker.blurLines(start, end, horizontal);
+				}
+			}, null));
+		}
+		for (int i = 1; i < count; i++) {
+			_executor.execute(tasks.get(i));
+		}
+		// Run whatever the executor hasn't started on this thread, then wait for the rest
+		for (int i = 0; i < count; i++) {
+			tasks.get(i).run();
+		}
+		Throwable failure = null;
+		for (int i = 0; i < count; i++) {
+			try {
+				tasks.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			}
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+	private static synchronized ExecutorService defaultExecutor() {
+		if (DEFAULT_EXECUTOR == null) {
+			DEFAULT_EXECUTOR = Executors.newFixedThreadPool(DEFAULT_THREADS, new ThreadFactory() {
+				private int _count;
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "stackblur-" + (++_count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return DEFAULT_EXECUTOR;
+	}
+}
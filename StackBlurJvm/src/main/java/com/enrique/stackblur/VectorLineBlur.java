@@ -0,0 +1,179 @@
+package com.enrique.stackblur;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The stack blur of several lines at once with the Vector API, one line per lane.
+ *
+ * A block of LANES lines is unpacked into one plane per channel, laid out position by
+ * position so a vector holds the same position of every line: columns for the vertical
+ * pass come straight out of the image this way, rows for the horizontal pass are
+ * transposed. Each plane is blurred with the running sums of the scalar kernel, and the
+ * division is a float estimate corrected to the exact quotient, so the output is
+ * identical to {@link LineBlur}, which still blurs the lines left over and scaled rows.
+ *
+ * Each thread needs its own VectorLineBlur.
+ */
+final class VectorLineBlur implements SplitBlurProcess.LineWorker {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	static final int LANES = INTS.length();
+
+	private final PixelSurface _src;
+	private final PixelSurface _dst;
+	private final int _w;
+	private final int _h;
+	private final int _radius;
+	private final ColorTransform _transform;
+	private final boolean _scaled;
+	private final LineBlur _scalar;
+	/** Packed pixels of the block, position by position */
+	private final int[] _block;
+	/** Rows as read from the image, before they are transposed */
+	private final int[] _rows;
+	private final int[] _plane;
+	private final int[] _out;
+
+	VectorLineBlur(PixelSurface src, PixelSurface dst, int radius, ColorTransform transform) {
+		_src = src;
+		_dst = dst;
+		_w = dst.getWidth();
+		_h = dst.getHeight();
+		_radius = radius;
+		_transform = transform;
+		_scaled = src.getWidth() != _w || src.getHeight() != _h;
+		_scalar = new LineBlur(src, dst, radius, transform, false, false);
+		int size = LANES * Math.max(_w, _h);
+		_block = new int[size];
+		_rows = new int[LANES * _w];
+		_plane = new int[size];
+		_out = new int[size];
+	}
+
+	@Override
+	public void blurLines(int start, int end, boolean horizontal) {
+		int line = start;
+		// Scaling only happens while reading rows, which the scalar kernel already does well
+		if (_radius > 0 && !(horizontal && _scaled)) {
+			for (; line + LANES <= end; line += LANES) {
+				blurBlock(line, horizontal);
+			}
+		}
+		for (; line < end; line++) {
+			_scalar.blurLine(line, horizontal);
+		}
+	}
+
+	private void blurBlock(int first, boolean horizontal) {
+		int len = horizontal ? _w : _h;
+		if (horizontal) {
+			_src.getPixels(_rows, 0, len, 0, first, len, LANES);
+			for (int lane = 0; lane < LANES; lane++) {
+				for (int x = 0, i = lane * len; x < len; x++, i++) {
+					_block[x * LANES + lane] = _rows[i];
+				}
+			}
+		} else {
+			_dst.getPixels(_block, 0, LANES, first, 0, LANES, len);
+		}
+
+		// Alpha is left as it is, like the scalar kernel does
+		blurChannel(16, len);
+		blurChannel(8, len);
+		blurChannel(0, len);
+
+		if (_transform != null && !horizontal) {
+			if (_dst.isPremultiplied()) {
+				_transform.applyPremultiplied(_block, len * LANES);
+			} else {
+				_transform.apply(_block, len * LANES);
+			}
+		}
+
+		if (horizontal) {
+			for (int lane = 0; lane < LANES; lane++) {
+				for (int x = 0, i = lane * len; x < len; x++, i++) {
+					_rows[i] = _block[x * LANES + lane];
+				}
+			}
+			_dst.setPixels(_rows, 0, len, 0, first, len, LANES);
+		} else {
+			_dst.setPixels(_block, 0, LANES, first, 0, LANES, len);
+		}
+	}
+
+	/**
+	 * Blur the channel at the given shift of every line in the block
+	 */
+	private void blurChannel(int shift, int len) {
+		int size = len * LANES;
+		for (int i = 0; i < size; i += LANES) {
+			IntVector.fromArray(INTS, _block, i)
+					.lanewise(VectorOperators.LSHR, shift)
+					.and(0xFF)
+					.intoArray(_plane, i);
+		}
+
+		blurPlane(len);
+
+		int keep = ~(0xFF << shift);
+		for (int i = 0; i < size; i += LANES) {
+			IntVector.fromArray(INTS, _block, i)
+					.and(keep)
+					.or(IntVector.fromArray(INTS, _out, i).lanewise(VectorOperators.LSHL, shift))
+					.intoArray(_block, i);
+		}
+	}
+
+	/**
+	 * The triangle filter of the stack blur over _plane into _out, with the sums of
+	 * the pixels leaving (left of and at the centre) and entering (right of the centre)
+	 * the stack kept as in the scalar kernel. Positions past the ends are clamped.
+	 */
+	private void blurPlane(int len) {
+		int radius = _radius;
+		int last = len - 1;
+		int divSum = (radius + 1) * (radius + 1);
+		IntVector first = load(0);
+		IntVector sum = first.mul((radius + 1) * (radius + 2) / 2);
+		IntVector sumOut = first.mul(radius + 1);
+		IntVector sumIn = IntVector.zero(INTS);
+		for (int k = 1; k <= radius; k++) {
+			IntVector p = load(Math.min(k, last));
+			sum = sum.add(p.mul(radius + 1 - k));
+			sumIn = sumIn.add(p);
+		}
+
+		float reciprocal = 1f / divSum;
+		for (int i = 0; ; i++) {
+			divide(sum.add(divSum / 2), divSum, reciprocal).intoArray(_out, i * LANES);
+			if (i == last) {
+				break;
+			}
+			IntVector entering = load(Math.min(i + radius + 1, last));
+			IntVector centre = load(i + 1);
+			sum = sum.sub(sumOut).add(sumIn).add(entering);
+			sumOut = sumOut.sub(load(Math.max(i - radius, 0))).add(centre);
+			sumIn = sumIn.add(entering).sub(centre);
+		}
+	}
+
+	private IntVector load(int position) {
+		return IntVector.fromArray(INTS, _plane, position * LANES);
+	}
+
+	/**
+	 * Exact n / d for non-negative n. The float estimate is off by at most one either way.
+	 */
+	private static IntVector divide(IntVector n, int d, float reciprocal) {
+		FloatVector estimate = (FloatVector) n.convert(VectorOperators.I2F, 0);
+		IntVector q = (IntVector) estimate.mul(reciprocal).convert(VectorOperators.F2I, 0);
+		IntVector product = q.mul(d);
+		VectorMask<Integer> over = product.compare(VectorOperators.GT, n);
+		VectorMask<Integer> under = product.add(d).compare(VectorOperators.LE, n);
+		return q.sub(1, over).add(1, under);
+	}
+}